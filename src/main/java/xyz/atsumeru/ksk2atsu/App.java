@@ -7,19 +7,36 @@ import de.codeshelf.consoleui.prompt.builder.PromptBuilder;
 import jline.TerminalFactory;
 import org.fusesource.jansi.Ansi;
 import org.fusesource.jansi.AnsiConsole;
+import xyz.atsumeru.ksk2atsu.database.ContentDiff;
 import xyz.atsumeru.ksk2atsu.database.Database;
+import xyz.atsumeru.ksk2atsu.database.enums.ArchiveHashType;
 import xyz.atsumeru.ksk2atsu.database.enums.BooksReSortingType;
+import xyz.atsumeru.ksk2atsu.database.enums.DuplicatesMode;
+import xyz.atsumeru.ksk2atsu.database.enums.MetadataOutputType;
 import xyz.atsumeru.ksk2atsu.database.enums.MigrationType;
+import xyz.atsumeru.ksk2atsu.database.enums.StorageType;
+import xyz.atsumeru.ksk2atsu.io.CopyEngine;
+import xyz.atsumeru.ksk2atsu.io.Duplicate;
+import xyz.atsumeru.ksk2atsu.io.IoThrottle;
+import xyz.atsumeru.ksk2atsu.io.NameCollision;
+import xyz.atsumeru.ksk2atsu.io.StorageProfile;
 import xyz.atsumeru.ksk2atsu.managers.*;
 import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
+import xyz.atsumeru.ksk2atsu.network.CoverSource;
+import xyz.atsumeru.ksk2atsu.network.HttpCoverSource;
+import xyz.atsumeru.ksk2atsu.network.MirrorCoverSource;
+import xyz.atsumeru.ksk2atsu.network.RetryPolicy;
 import xyz.atsumeru.ksk2atsu.utils.ArrayUtils;
 import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.utils.StringUtils;
+import xyz.atsumeru.ksk2atsu.utils.TokenBucket;
 
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class App {
@@ -44,6 +61,29 @@ public class App {
     public static final String ORIGINAL_WORK = "Original Work";
 
     private static final String DEBUG_ARG = "--debug";
+    private static final String COVERS_RATE_ARG = "--covers-rate";
+    private static final String COVERS_RETRIES_ARG = "--covers-retries";
+    private static final String COVERS_MIRROR_ARG = "--covers-mirror";
+    private static final String COVERS_BASE_URL_ARG = "--covers-base-url";
+    private static final String ARCHIVE_COVERS_ARG = "--archive-covers";
+    private static final String COPY_THREADS_ARG = "--copy-threads";
+    private static final String COPY_DEVICE_THREADS_ARG = "--copy-device-threads";
+    private static final String STORAGE_TYPE_ARG = "--storage-type";
+    private static final String IO_READ_LIMIT_ARG = "--io-read-limit";
+    private static final String IO_WRITE_LIMIT_ARG = "--io-write-limit";
+    private static final String IO_IOPS_LIMIT_ARG = "--io-iops-limit";
+    private static final String PREVIOUS_DB_ARG = "--previous-db";
+    private static final String METADATA_OUTPUT_ARG = "--metadata-output";
+    private static final String MANIFEST_ARG = "--manifest";
+    private static final String ARCHIVE_HASH_ARG = "--archive-hash";
+    private static final String DUPLICATES_ARG = "--duplicates";
+
+    private static final double DEFAULT_COVERS_RATE = 4;
+    private static final int DEFAULT_COVERS_RETRIES = 5;
+    private static final int DEFAULT_COPY_THREADS = 4;
+    private static final long BYTES_IN_MEGABYTE = 1024 * 1024;
+    private static final long COVERS_RETRY_BASE_DELAY_MILLIS = 1000;
+    private static final long COVERS_RETRY_MAX_DELAY_MILLIS = 60000;
 
     public static boolean IS_DEBUG = true;
     private static Map<String, String> argsMap;
@@ -127,6 +167,8 @@ public class App {
                 .message("Migration type")
                 .newItem("move").text("Move files (requires at least 5GB of free space)").add()
                 .newItem("copy").text("Copy files (requires at least as much free space as the size of the files plus 5GB)").add()
+                .newItem("link").text("Hard link files (input and output folders must be on the same filesystem, otherwise files will be copied)").add()
+                .newItem("clone").text("Clone files (Btrfs/XFS reflinks, falls back to copying if filesystem doesn't support it)").add()
                 .addPrompt();
 
         promptBuilder.createListPrompt()
@@ -138,7 +180,7 @@ public class App {
 
         promptBuilder.createConfirmPromp()
                 .name("rewrite_metadata")
-                .message("Rewrite metadata in archives if metadata already present? (default: no)")
+                .message("Rewrite metadata in archives if metadata already present? Ignored with " + PREVIOUS_DB_ARG + " argument (default: no)")
                 .defaultValue(ConfirmChoice.ConfirmationValue.NO)
                 .addPrompt();
 
@@ -168,7 +210,8 @@ public class App {
      *
      * @param input           {@link File} dir with ksk rip files
      * @param output          {@link File} dir where result will be stored
-     * @param migrationType   if {@link MigrationType#MOVE}, files from input dir will be moved into output, otherwise copied
+     * @param migrationType   if {@link MigrationType#MOVE}, files from input dir will be moved into output, if {@link MigrationType#LINK},
+     *                        hard linked, if {@link MigrationType#CLONE}, reflink cloned, otherwise copied
      * @param reSortingType   if {@link BooksReSortingType#BY_AUTHOR}, files in output dir will be resorted by Author, otherwise by Publisher
      * @param reWriteMetadata if true, metadata will be regenerated and rewrote into archive file even if present
      */
@@ -185,28 +228,66 @@ public class App {
         File doujinsDir = new File(outputDir, DOUJINS_FOLDER);
         File magazinesDir = new File(outputDir, MAGAZINES_FOLDER);
 
-        // Change all extensions in dump from *.zip to *.cbz
-        ExtensionChanger.change(workingDir, ZIP_EXTENSION, CBZ_EXTENSION);
+        // Detect spinning disks or use storage type from arguments
+        StorageProfile.configure(getArg(STORAGE_TYPE_ARG, value -> StorageType.valueOf(value.toUpperCase()), StorageType.AUTO));
 
-        // Move all books into a new place depending on parsed metadata
-        List<String> booksMoveErrors = BooksMover.move(workingDir, outputDir, migrationType);
+        // Limit disk bandwidth and IOPS, so migration doesn't starve other disk users
+        configureIoThrottle();
+
+        // Name collisions resolved while moving and renaming
+        List<NameCollision> nameCollisions = new ArrayList<>();
+
+        // Move all books into a new place depending on parsed metadata. Extensions are changed from *.zip to *.cbz in new place
+        List<String> booksMoveErrors = BooksMover.move(workingDir, outputDir, migrationType, createCopyEngine(), nameCollisions);
 
         // Download covers for magazines
-        List<String> coverDownloadErrors = CoversDownloader.download(magazinesDir);
+        List<String> coverDownloadErrors = CoversDownloader.download(magazinesDir, createCoverSource());
 
         // Parse metadata from files in new place
         List<FileMetadata> movedFiles = MetadataParser.parse(outputDir);
 
+        // Find rows changed since previous metadata dump, so only affected archives are regenerated
+        ContentDiff contentDiff = createContentDiff(database);
+
+        // Save metadata into archives or into sidecar files next to them, so archives on write-once storage are never rewritten
+        MetadataOutputType metadataOutputType = getArg(METADATA_OUTPUT_ARG, value -> MetadataOutputType.valueOf(value.toUpperCase()), MetadataOutputType.ARCHIVE);
+
+        // Create Archive hashes from archive names or from content fingerprints that survive renaming
+        ArchiveHashType archiveHashType = getArg(ARCHIVE_HASH_ARG, value -> ArchiveHashType.valueOf(value.toUpperCase()), ArchiveHashType.FILE_NAME);
+
         // Generate metadata for each Magazine
-        List<String> metadataGenerateForMagazinesErrors = MetadataGenerator.generateForMagazines(magazinesDir, movedFiles, database, reWriteMetadata);
+        List<String> metadataGenerateForMagazinesErrors = MetadataGenerator.generateForMagazines(magazinesDir, movedFiles, database, reWriteMetadata, contentDiff,
+                metadataOutputType, archiveHashType);
 
         // Generate metadata for each Book
-        List<String> metadataGenerateForBooksErrors = MetadataGenerator.generateForDoujinshi(doujinsDir, movedFiles, database, reWriteMetadata);
+        List<String> metadataGenerateForBooksErrors = MetadataGenerator.generateForDoujinshi(doujinsDir, movedFiles, database, reWriteMetadata, contentDiff,
+                metadataOutputType, archiveHashType);
+
+        // Rename all books using saved metadata. Written metadata is kept in memory if library manifest will be exported
+        List<FileMetadata> renamedFiles = new ArrayList<>();
+        File manifestFile = getArg(MANIFEST_ARG, File::new, null);
+        List<String> renameErrors = BooksRenamer.rename(outputDir, reSortingType, nameCollisions, renamedFiles, manifestFile != null);
+
+        // Find duplicate archives and report them or replace them with hard links
+        List<Duplicate> duplicates = new ArrayList<>();
+        List<String> duplicatesErrors = DuplicatesFinder.find(
+                renamedFiles,
+                getArg(DUPLICATES_ARG, value -> DuplicatesMode.valueOf(value.toUpperCase()), DuplicatesMode.OFF),
+                duplicates
+        );
+
+        // Extract covers for Doujins and Books from their first pages
+        List<String> coverExtractErrors = getArg(ARCHIVE_COVERS_ARG, Boolean::valueOf, false)
+                ? CoversExtractor.extractForBooks(outputDir)
+                : List.of();
 
-        // Rename all books using saved metadata
-        List<String> renameErrors = BooksRenamer.rename(outputDir, reSortingType);
+        // Export library manifest, so Atsumeru may import library without rescanning archives
+        List<String> manifestErrors = manifestFile != null
+                ? ManifestExporter.export(outputDir, renamedFiles, manifestFile)
+                : List.of();
 
-        saveLogs(booksMoveErrors, coverDownloadErrors, metadataGenerateForMagazinesErrors, metadataGenerateForBooksErrors, renameErrors);
+        saveLogs(booksMoveErrors, coverDownloadErrors, metadataGenerateForMagazinesErrors, metadataGenerateForBooksErrors, renameErrors, duplicatesErrors,
+                coverExtractErrors, manifestErrors, nameCollisions, duplicates);
         database.close();
     }
 
@@ -215,12 +296,19 @@ public class App {
      *
      * @param booksMoveErrors                    errors from {@link BooksMover}
      * @param coverDownloadErrors                errors from {@link CoversDownloader}
-     * @param metadataGenerateForMagazinesErrors errors from {@link MetadataGenerator#generateForMagazines(File, List, Database, boolean)}
-     * @param metadataGenerateForBooksErrors     errors from {@link MetadataGenerator#generateForDoujinshi(File, List, Database, boolean)}
+     * @param metadataGenerateForMagazinesErrors errors from {@link MetadataGenerator#generateForMagazines(File, List, Database, boolean, ContentDiff, MetadataOutputType, ArchiveHashType)}
+     * @param metadataGenerateForBooksErrors     errors from {@link MetadataGenerator#generateForDoujinshi(File, List, Database, boolean, ContentDiff, MetadataOutputType, ArchiveHashType)}
      * @param renameErrors                       errors from {@link BooksRenamer}
+     * @param duplicatesErrors                   errors from {@link DuplicatesFinder}
+     * @param coverExtractErrors                 errors from {@link CoversExtractor}
+     * @param manifestErrors                     errors from {@link ManifestExporter}
+     * @param nameCollisions                     {@link NameCollision} from {@link BooksMover} and {@link BooksRenamer}
+     * @param duplicates                         {@link Duplicate} from {@link DuplicatesFinder}
      */
     private static void saveLogs(List<String> booksMoveErrors, List<String> coverDownloadErrors, List<String> metadataGenerateForMagazinesErrors,
-                                 List<String> metadataGenerateForBooksErrors, List<String> renameErrors) {
+                                 List<String> metadataGenerateForBooksErrors, List<String> renameErrors, List<String> duplicatesErrors,
+                                 List<String> coverExtractErrors, List<String> manifestErrors, List<NameCollision> nameCollisions,
+                                 List<Duplicate> duplicates) {
         List<String> errors = new ArrayList<>();
         if (ArrayUtils.isNotEmpty(booksMoveErrors)) {
             errors.add("Unable to move or copy files:");
@@ -252,6 +340,45 @@ public class App {
             errors.add("\n");
         }
 
+        if (ArrayUtils.isNotEmpty(duplicatesErrors)) {
+            errors.add("Unable to process duplicates:");
+            errors.addAll(duplicatesErrors);
+            errors.add("\n");
+        }
+
+        if (ArrayUtils.isNotEmpty(coverExtractErrors)) {
+            errors.add("Unable to extract covers for:");
+            errors.addAll(coverExtractErrors);
+            errors.add("\n");
+        }
+
+        if (ArrayUtils.isNotEmpty(manifestErrors)) {
+            errors.add("Unable to export manifest:");
+            errors.addAll(manifestErrors);
+            errors.add("\n");
+        }
+
+        if (ArrayUtils.isNotEmpty(nameCollisions)) {
+            errors.add("Name collisions:");
+            nameCollisions.stream()
+                    .map(NameCollision::describe)
+                    .forEach(errors::add);
+            errors.add("\n");
+        }
+
+        if (ArrayUtils.isNotEmpty(duplicates)) {
+            long linkedSize = duplicates.stream()
+                    .filter(Duplicate::isLinked)
+                    .mapToLong(Duplicate::size)
+                    .sum();
+
+            errors.add(String.format("Duplicates (%d found, %.1f MB freed by hard links):", duplicates.size(), (double) linkedSize / BYTES_IN_MEGABYTE));
+            duplicates.stream()
+                    .map(Duplicate::describe)
+                    .forEach(errors::add);
+            errors.add("\n");
+        }
+
         File errorsFile = new File("./errors.log");
         FileUtils.writeStringToFile(errorsFile, String.join("\n", errors));
 
@@ -278,7 +405,113 @@ public class App {
         }
     }
 
+    /**
+     * Configure {@link IoThrottle} limits from {@link #IO_READ_LIMIT_ARG} and {@link #IO_WRITE_LIMIT_ARG} arguments in
+     * megabytes per second and {@link #IO_IOPS_LIMIT_ARG} argument in operations per second. Limits are disabled by default
+     */
+    private static void configureIoThrottle() {
+        IoThrottle.configure(
+                getArg(IO_READ_LIMIT_ARG, Double::valueOf, 0d) * BYTES_IN_MEGABYTE,
+                getArg(IO_WRITE_LIMIT_ARG, Double::valueOf, 0d) * BYTES_IN_MEGABYTE,
+                getArg(IO_IOPS_LIMIT_ARG, Double::valueOf, 0d)
+        );
+    }
+
+    /**
+     * Compute {@link ContentDiff} between previous metadata dump from {@link #PREVIOUS_DB_ARG} argument and current
+     * {@link Database}
+     *
+     * @param database current {@link Database}
+     * @return {@link ContentDiff} or null if previous metadata dump isn't provided
+     */
+    private static ContentDiff createContentDiff(Database database) {
+        File previousDBFile = getArg(PREVIOUS_DB_ARG, File::new, null);
+        if (previousDBFile == null) {
+            return null;
+        }
+
+        if (!previousDBFile.isFile()) {
+            System.out.println("Previous metadata dump not found: " + previousDBFile + ". Metadata will be generated for all archives");
+            return null;
+        }
+
+        try (Database previousDatabase = new Database(previousDBFile)) {
+            ContentDiff contentDiff = ContentDiff.compute(previousDatabase, database);
+            System.out.println("Changed metadata rows since previous dump: " + contentDiff.size());
+            return contentDiff;
+        }
+    }
+
+    /**
+     * Create {@link CopyEngine} for {@link BooksMover}. Amount of parallel transfers may be changed with {@link #COPY_THREADS_ARG}
+     * argument and amount of parallel transfers per storage device with {@link #COPY_DEVICE_THREADS_ARG} argument
+     *
+     * @return {@link CopyEngine} for files copying
+     */
+    private static CopyEngine createCopyEngine() {
+        int threads = getArg(COPY_THREADS_ARG, Integer::valueOf, DEFAULT_COPY_THREADS);
+        return new CopyEngine(threads, getArg(COPY_DEVICE_THREADS_ARG, Integer::valueOf, threads));
+    }
+
+    /**
+     * Create {@link CoverSource} for {@link CoversDownloader}. If {@link #COVERS_MIRROR_ARG} argument present, covers will
+     * be taken from local directory mirror, otherwise requested over HTTP from live sites or from server set by
+     * {@link #COVERS_BASE_URL_ARG} argument
+     *
+     * @return {@link CoverSource} for covers downloading
+     */
+    private static CoverSource createCoverSource() {
+        String mirrorDir = getArg(COVERS_MIRROR_ARG, Function.identity(), null);
+        if (StringUtils.isNotEmpty(mirrorDir)) {
+            return new MirrorCoverSource(new File(mirrorDir));
+        }
+        return new HttpCoverSource(createCoversRetryPolicy(), createCoversRateLimiter(), getArg(COVERS_BASE_URL_ARG, Function.identity(), null));
+    }
+
+    /**
+     * Create {@link RetryPolicy} for {@link CoversDownloader}. Amount of retries may be changed with {@link #COVERS_RETRIES_ARG} argument
+     *
+     * @return {@link RetryPolicy} for cover requests
+     */
+    private static RetryPolicy createCoversRetryPolicy() {
+        return new RetryPolicy(
+                getArg(COVERS_RETRIES_ARG, Integer::valueOf, DEFAULT_COVERS_RETRIES),
+                COVERS_RETRY_BASE_DELAY_MILLIS,
+                COVERS_RETRY_MAX_DELAY_MILLIS
+        );
+    }
+
+    /**
+     * Create {@link TokenBucket} rate limiter for {@link CoversDownloader}. Requests per second may be changed with
+     * {@link #COVERS_RATE_ARG} argument. Zero value disables limiting
+     *
+     * @return {@link TokenBucket} for cover requests
+     */
+    private static TokenBucket createCoversRateLimiter() {
+        double rate = getArg(COVERS_RATE_ARG, Double::valueOf, DEFAULT_COVERS_RATE);
+        return new TokenBucket(rate, rate);
+    }
+
     private static void parseArgs(String[] args) {
         argsMap = Arrays.stream(args).collect(Collectors.toMap(arg -> arg.replaceAll("=.*", ""), arg -> arg.replaceAll("--.*=", "")));
     }
+
+    /**
+     * Get parsed value of app argument
+     *
+     * @param arg          argument name
+     * @param parser       {@link Function} that parses {@link String} value
+     * @param defaultValue value that will be returned if argument is absent or can't be parsed
+     * @return parsed argument value or default value
+     */
+    private static <T> T getArg(String arg, Function<String, T> parser, T defaultValue) {
+        try {
+            return Optional.ofNullable(argsMap.get(arg))
+                    .map(parser)
+                    .orElse(defaultValue);
+        } catch (Exception e) {
+            System.err.println("Invalid value of " + arg + " argument. Using default value: " + defaultValue);
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package xyz.atsumeru.ksk2atsu.database;
+
+import xyz.atsumeru.ksk2atsu.database.enums.CatalogType;
+import xyz.atsumeru.ksk2atsu.database.models.Content;
+import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
+import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
+import xyz.atsumeru.ksk2atsu.utils.Pair;
+import xyz.atsumeru.ksk2atsu.utils.StringUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Difference between previous and current metadata dump {@link Database}. Rows are compared by {@link CatalogType}
+ * with {@link Content#getId()} and MD5 hash of all row values. Added, changed and removed rows are mapped back to
+ * archives by link from their {@link BookInfo}, so only affected archives need metadata regeneration
+ */
+public class ContentDiff {
+    // Separates values in row hash, so moving text between neighbour columns changes hash
+    private static final String VALUES_SEPARATOR = "\u0000";
+    private static final String NULL_VALUE = "\u0001";
+
+    private final Set<String> changedUrls = new HashSet<>();
+
+    /**
+     * Compute difference between two {@link Database}
+     *
+     * @param previous previous metadata dump {@link Database}
+     * @param current  current metadata dump {@link Database}
+     * @return {@link ContentDiff}
+     */
+    public static ContentDiff compute(Database previous, Database current) {
+        // Key - catalog type with content id, value - row hash with url
+        Map<String, Pair<String, String>> previousRows = new HashMap<>();
+        for (CatalogType catalogType : CatalogType.values()) {
+            for (Content content : previous.getDao().queryAll(catalogType)) {
+                previousRows.put(createKey(catalogType, content), new Pair<>(createRowHash(content), content.getUrl()));
+            }
+        }
+
+        ContentDiff contentDiff = new ContentDiff();
+        for (CatalogType catalogType : CatalogType.values()) {
+            for (Content content : current.getDao().queryAll(catalogType)) {
+                Pair<String, String> previousRow = previousRows.remove(createKey(catalogType, content));
+                if (previousRow == null || !previousRow.first.equals(createRowHash(content))) {
+                    contentDiff.addChangedUrl(content.getUrl());
+                    Optional.ofNullable(previousRow).ifPresent(row -> contentDiff.addChangedUrl(row.second));
+                }
+            }
+        }
+
+        // Rows that are removed from current database
+        previousRows.values().forEach(row -> contentDiff.addChangedUrl(row.second));
+        return contentDiff;
+    }
+
+    /**
+     * Check if metadata of archive must be regenerated. Archives without metadata are always affected
+     *
+     * @param fileMetadata {@link FileMetadata} of archive
+     * @return true if archive is affected by changed rows
+     */
+    public boolean isAffected(FileMetadata fileMetadata) {
+        BookInfo bookInfo = fileMetadata.getBookInfo();
+        if (bookInfo == null) {
+            return true;
+        }
+
+        return Optional.ofNullable(bookInfo.getLink())
+                .map(String::toLowerCase)
+                .filter(changedUrls::contains)
+                .isPresent();
+    }
+
+    /**
+     * Get amount of changed urls
+     *
+     * @return amount of changed urls
+     */
+    public int size() {
+        return changedUrls.size();
+    }
+
+    /**
+     * Record changed {@link Content} url
+     *
+     * @param url {@link Content} url. May be null
+     */
+    private void addChangedUrl(String url) {
+        if (StringUtils.isNotEmpty(url)) {
+            changedUrls.add(url.toLowerCase());
+        }
+    }
+
+    /**
+     * Create MD5 hash of all column values of {@link Content} row. Values are listed explicitly because subclasses of
+     * {@link Content} don't include inherited fields into their {@link Object#toString()}
+     *
+     * @param content {@link Content} row
+     * @return {@link String} MD5 hash
+     */
+    private static String createRowHash(Content content) {
+        return StringUtils.md5Hex(
+                Stream.of(content.getUrl(), content.getTitle(), content.getAuthor(), content.getCover(), content.getArtists(),
+                                content.getParodies(), content.getCircles(), content.getPublisher(), content.getEvent(),
+                                content.getMagazine(), content.getLanguage(), content.getTranslator(), content.getTags(),
+                                content.getColor(), content.getCensorship(), content.getDescription())
+                        .map(value -> value != null ? value : NULL_VALUE)
+                        .collect(Collectors.joining(VALUES_SEPARATOR))
+        );
+    }
+
+    /**
+     * Create row key from {@link CatalogType} and {@link Content#getId()}
+     *
+     * @param catalogType {@link CatalogType} of row
+     * @param content     {@link Content} row
+     * @return {@link String} key
+     */
+    private static String createKey(CatalogType catalogType, Content content) {
+        return catalogType + ":" + content.getId();
+    }
+}
@@ -15,6 +15,7 @@ public class Database implements Closeable {
     private static final String DB_FILE_NAME = "dump.db";
     @Getter
     private DaoManager dao;
+    private File externalDBFile;
 
     /**
      * Create Database instance and connect to database
@@ -23,6 +24,21 @@ public class Database implements Closeable {
         connect();
     }
 
+    /**
+     * Create Database instance and connect to external database {@link File}, e.g. previous version of metadata dump.
+     * External database is never deleted on {@link #close()}
+     *
+     * @param dbFile external database {@link File} (*.db)
+     */
+    public Database(File dbFile) {
+        externalDBFile = dbFile;
+        try {
+            dao = new DaoManager(dbFile.toString());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Unpack database from resources and put into launch folder. It's necessary to unpack it rather to direct using db
      * from resources because, for some reasons, file if null in runtime
@@ -64,11 +80,13 @@ public class Database implements Closeable {
     }
 
     /**
-     * Close {@link DaoManager} and delete database {@link File} from filesystem
+     * Close {@link DaoManager} and delete unpacked database {@link File} from filesystem
      */
     @Override
     public void close() {
         Optional.ofNullable(dao).ifPresent(DaoManager::close);
-        getDBFile().delete();
+        if (externalDBFile == null) {
+            getDBFile().delete();
+        }
     }
 }
@@ -0,0 +1,9 @@
+package xyz.atsumeru.ksk2atsu.database.enums;
+
+/**
+ * Enum that indicates how Atsumeru Archive hash is created: from archive file name or from archive content fingerprint
+ */
+public enum ArchiveHashType {
+    FILE_NAME,
+    FINGERPRINT
+}
@@ -0,0 +1,10 @@
+package xyz.atsumeru.ksk2atsu.database.enums;
+
+/**
+ * Enum that indicates what to do with duplicate archives: nothing, only report them or replace them with hard links
+ */
+public enum DuplicatesMode {
+    OFF,
+    REPORT,
+    LINK
+}
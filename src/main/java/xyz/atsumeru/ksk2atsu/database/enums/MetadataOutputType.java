@@ -0,0 +1,9 @@
+package xyz.atsumeru.ksk2atsu.database.enums;
+
+/**
+ * Enum that indicates where generated book_info.json metadata will be saved: into archive or into sidecar file next to archive
+ */
+public enum MetadataOutputType {
+    ARCHIVE,
+    SIDECAR
+}
@@ -1,9 +1,11 @@
 package xyz.atsumeru.ksk2atsu.database.enums;
 
 /**
- * Enum that indicates which type of files migration will be used: move or copy
+ * Enum that indicates which type of files migration will be used: move, copy, hard link or reflink clone
  */
 public enum MigrationType {
     MOVE,
-    COPY
+    COPY,
+    LINK,
+    CLONE
 }
@@ -0,0 +1,10 @@
+package xyz.atsumeru.ksk2atsu.database.enums;
+
+/**
+ * Enum that indicates type of storage on which files are located: detected automatically, spinning disk or solid state drive
+ */
+public enum StorageType {
+    AUTO,
+    HDD,
+    SSD
+}
@@ -6,12 +6,12 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import xyz.atsumeru.ksk2atsu.database.Database;
 import xyz.atsumeru.ksk2atsu.database.enums.CatalogType;
+import xyz.atsumeru.ksk2atsu.utils.Pair;
 import xyz.atsumeru.ksk2atsu.utils.StringUtils;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Base model of {@link Content} table in {@link Database}. Corresponds to {@link CatalogType#UNLIMITED} value
@@ -59,52 +59,92 @@ public class Content {
     public String description;
 
     /**
-     * Method for merging {@link List} of {@link Content} into one single {@link Content}. Used for creating uber-metadata
-     * for single Atsumeru Serie
-     *
-     * @param title    Atsumeru Serie title
-     * @param contents {@link List} of {@link Content} that will be merged
-     * @return uber-metadata {@link Content}
+     * Accumulator for merging {@link Content} into one single {@link Content}. Comma-separated values of every field are
+     * collected into {@link LinkedHashSet} without duplicates and descriptions into single {@link StringBuilder}, so
+     * merged {@link Content} is built once, no matter how many {@link Content} were added. Used for creating uber-metadata
+     * for single Atsumeru Serie. Not thread-safe, order of values follows order of adding
      */
-    public static Content merge(String title, List<Content> contents) {
-        Content merged = new Content();
-        merged.setTitle(title);
-        merged.setLanguage("English");
+    public static class Merger {
+        private static final List<Pair<Function<Content, String>, BiConsumer<Content, String>>> MERGED_FIELDS = List.of(
+                new Pair<>(Content::getAuthor, Content::setAuthor),
+                new Pair<>(Content::getArtists, Content::setArtists),
+                new Pair<>(Content::getParodies, Content::setParodies),
+                new Pair<>(Content::getCircles, Content::setCircles),
+                new Pair<>(Content::getPublisher, Content::setPublisher),
+                new Pair<>(Content::getEvent, Content::setEvent),
+                new Pair<>(Content::getMagazine, Content::setMagazine),
+                new Pair<>(Content::getTranslator, Content::setTranslator),
+                new Pair<>(Content::getTags, Content::setTags)
+        );
+
+        private final String title;
+        private final List<Set<String>> values = new ArrayList<>();
+        private final StringBuilder description = new StringBuilder();
+        private boolean isUncensored;
+        private int count;
+
+        /**
+         * Create accumulator for Atsumeru Serie
+         *
+         * @param title Atsumeru Serie title
+         */
+        public Merger(String title) {
+            this.title = title;
+            MERGED_FIELDS.forEach(field -> values.add(new LinkedHashSet<>()));
+        }
+
+        /**
+         * Add {@link Content} values into accumulator
+         *
+         * @param content {@link Content} that will be merged
+         */
+        public void add(Content content) {
+            for (int i = 0; i < MERGED_FIELDS.size(); i++) {
+                String value = MERGED_FIELDS.get(i).first.apply(content);
+                if (StringUtils.isNotEmpty(value)) {
+                    for (String item : value.split(",")) {
+                        if (!item.isBlank()) {
+                            values.get(i).add(item.trim());
+                        }
+                    }
+                }
+            }
 
-        for (Content content : contents) {
-            merged.author = merge(merged.author, content.author);
-            merged.artists = merge(merged.artists, content.artists);
-            merged.parodies = merge(merged.parodies, content.parodies);
-            merged.circles = merge(merged.circles, content.circles);
-            merged.publisher = merge(merged.publisher, content.publisher);
-            merged.event = merge(merged.event, content.event);
-            merged.magazine = merge(merged.magazine, content.magazine);
-            merged.translator = merge(merged.translator, content.translator);
-            merged.tags = merge(merged.tags, content.tags);
             if (StringUtils.equalsIgnoreCase(content.censorship, "UNCENSORED")) {
-                merged.censorship = "UNCENSORED";
+                isUncensored = true;
+            }
+
+            if (StringUtils.isNotEmpty(content.description)) {
+                if (!description.isEmpty()) {
+                    description.append("\n\n");
+                }
+                description.append(content.description);
             }
-            merged.description = Stream.of(merged.description, content.description)
-                    .filter(StringUtils::isNotEmpty)
-                    .collect(Collectors.joining("\n\n"));
+            count++;
         }
-        return merged;
-    }
 
-    /**
-     * Helper method for {@link Content#merge(String, List)} method that will merge two comma-separated {@link String}
-     * into one without duplicates
-     *
-     * @param first  comma-separated {@link String}
-     * @param second comma-separated {@link String}
-     * @return comma-separated {@link String} from two other without duplicates
-     */
-    private static String merge(String first, String second) {
-        return Stream.of(first, second)
-                .filter(StringUtils::isNotEmpty)
-                .flatMap(item -> Arrays.stream(item.split(",")))
-                .map(String::trim)
-                .distinct()
-                .collect(Collectors.joining(","));
+        /**
+         * Build uber-metadata {@link Content} from all added {@link Content}
+         *
+         * @return uber-metadata {@link Content}
+         */
+        public Content build() {
+            Content merged = new Content();
+            merged.setTitle(title);
+            merged.setLanguage("English");
+
+            // Fields are left empty if nothing was added
+            if (count > 0) {
+                for (int i = 0; i < MERGED_FIELDS.size(); i++) {
+                    MERGED_FIELDS.get(i).second.accept(merged, String.join(",", values.get(i)));
+                }
+                merged.description = description.toString();
+            }
+
+            if (isUncensored) {
+                merged.censorship = "UNCENSORED";
+            }
+            return merged;
+        }
     }
 }
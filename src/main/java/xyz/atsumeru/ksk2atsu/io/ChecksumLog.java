@@ -0,0 +1,55 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread-safe log of file checksums verified during transfers. Saved in <b>crc32c size path</b> format, one file per line,
+ * so files can be checked for integrity later
+ */
+public class ChecksumLog {
+    private final Queue<String> lines = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Record checksum of transferred file
+     *
+     * @param path   {@link Path} of transferred file
+     * @param size   file size in bytes
+     * @param crc32c CRC32C checksum of file data
+     */
+    public void record(Path path, long size, long crc32c) {
+        lines.add(String.format("%08x %d %s", crc32c, size, path.toAbsolutePath()));
+    }
+
+    /**
+     * Check if any checksum was recorded
+     *
+     * @return true if nothing was recorded
+     */
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    /**
+     * Append all recorded checksums into given {@link File}
+     *
+     * @param file destination {@link File}
+     */
+    public void save(File file) {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Strategy of {@link Reflink} cloning that shares data blocks of source file with target file
+ */
+interface Cloner {
+    int EIO = 5;
+    int EXDEV = 18;
+    int EINVAL = 22;
+    int EOPNOTSUPP = 95;
+
+    /**
+     * Clone data of source {@link Path} into existing empty target {@link Path}
+     *
+     * @param source source {@link Path}
+     * @param target existing empty target {@link Path}
+     * @return 0 if file was cloned or errno of failed call
+     * @throws IOException if cloning can't be performed
+     */
+    int clone(Path source, Path target) throws IOException;
+}
@@ -0,0 +1,397 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import me.tongfei.progressbar.ProgressBar;
+import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.utils.ProgressBarBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Parallel file copying engine. Runs configurable amount of transfers at once, limits amount of concurrent transfers
+ * per storage device and reports progress in bytes. Data is transferred with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so kernel may copy it without passing through user space (copy_file_range/sendfile)
+ * <p>
+ * All reads and writes take permits from {@link IoThrottle}, so bandwidth and IOPS limits are respected
+ * <p>
+ * Tasks that read from spinning disks are started in inode order and spinning disks are accessed by single transfer at once,
+ * see {@link StorageProfile}
+ * <p>
+ * Also supports verified moving between devices: data is checksummed while being copied, destination is flushed, read
+ * back from storage bypassing page cache and verified, and source is deleted only if checksums match
+ */
+public class CopyEngine {
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Direct I/O needs buffers aligned to block size, so aligned slices are cut from buffers with space for alignment
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<ByteBuffer> UNCACHED_BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE + MAX_BLOCK_SIZE));
+
+    private final int parallelism;
+    private final int perDeviceLimit;
+    private final Map<String, Semaphore> deviceSemaphores = new ConcurrentHashMap<>();
+
+    /**
+     * Create {@link CopyEngine}
+     *
+     * @param parallelism    maximum amount of concurrent transfers
+     * @param perDeviceLimit maximum amount of concurrent transfers that read from or write into single storage device.
+     *                       Spinning disks are always limited to single transfer
+     */
+    public CopyEngine(int parallelism, int perDeviceLimit) {
+        this.parallelism = Math.max(1, parallelism);
+        this.perDeviceLimit = Math.max(1, perDeviceLimit);
+    }
+
+    /**
+     * Copy all given {@link CopyTask}. Existing targets are never overwritten
+     *
+     * @param tasks   {@link List} of {@link CopyTask}
+     * @param message message for progress indicating
+     * @return {@link List} of {@link String} errors
+     */
+    public List<String> copy(List<CopyTask> tasks, String message) {
+        return run(tasks, message, (task, progressBar) -> {
+            try {
+                transfer(task.source(), task.target(), progressBar);
+                return null;
+            } catch (FileAlreadyExistsException e) {
+                return "Duplicate file: [" + task.source() + "]";
+            } catch (IOException e) {
+                if (App.IS_DEBUG) {
+                    e.printStackTrace();
+                }
+                return "Unable to copy [" + task.source() + "] to [" + task.target() + "]";
+            }
+        });
+    }
+
+    /**
+     * Move all given {@link CopyTask} between devices with verification. Every file is checksummed with {@link CRC32C}
+     * while being copied, then destination is read back and verified. Source is deleted only if checksums match.
+     * Existing targets are never overwritten
+     *
+     * @param tasks       {@link List} of {@link CopyTask}
+     * @param message     message for progress indicating
+     * @param checksumLog {@link ChecksumLog} into which verified checksums will be recorded
+     * @return {@link List} of {@link String} errors
+     */
+    public List<String> move(List<CopyTask> tasks, String message, ChecksumLog checksumLog) {
+        return run(tasks, message, (task, progressBar) -> {
+            try {
+                long crc32c = transferVerified(task.source(), task.target(), progressBar);
+                checksumLog.record(task.target(), Files.size(task.target()), crc32c);
+            } catch (FileAlreadyExistsException e) {
+                return "Duplicate file: [" + task.source() + "]";
+            } catch (IOException e) {
+                if (App.IS_DEBUG) {
+                    e.printStackTrace();
+                }
+                return "Unable to move [" + task.source() + "] to [" + task.target() + "]: " + e.getMessage();
+            }
+
+            try {
+                Files.delete(task.source());
+                return null;
+            } catch (IOException e) {
+                return "Verified copy created but unable to delete source: [" + task.source() + "]";
+            }
+        });
+    }
+
+    /**
+     * Run all given {@link CopyTask} in parallel with {@link Transfer} holding permits of source and target devices
+     *
+     * @param tasks    {@link List} of {@link CopyTask}
+     * @param message  message for progress indicating
+     * @param transfer {@link Transfer} that executes single {@link CopyTask}
+     * @return {@link List} of {@link String} errors
+     */
+    private List<String> run(List<CopyTask> tasks, String message, Transfer transfer) {
+        tasks = orderTasks(tasks);
+        long totalBytes = tasks.stream()
+                .mapToLong(task -> FileUtils.sizeQuietly(task.source()))
+                .sum();
+
+        ProgressBar progressBar = ProgressBarBuilder.createForBytes(message, totalBytes);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (CopyTask task : tasks) {
+                futures.add(executor.submit(() -> runWithDevicePermits(task, progressBar, transfer)));
+            }
+
+            List<String> errors = new ArrayList<>();
+            for (Future<String> future : futures) {
+                String error = future.get();
+                if (error != null) {
+                    errors.add(error);
+                }
+            }
+            return errors;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of("Copying interrupted");
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return List.of("Copying failed: " + e.getCause());
+        } finally {
+            executor.shutdownNow();
+            progressBar.close();
+        }
+    }
+
+    /**
+     * Order {@link CopyTask} so ones that read from spinning disks start in inode order, which approximates physical
+     * order of files on disk. Order of other tasks is kept
+     *
+     * @param tasks {@link List} of {@link CopyTask}
+     * @return ordered {@link List} of {@link CopyTask}
+     */
+    private static List<CopyTask> orderTasks(List<CopyTask> tasks) {
+        if (tasks.isEmpty() || !StorageProfile.isRotational(tasks.get(0).source())) {
+            return tasks;
+        }
+
+        Map<CopyTask, Long> inodes = new HashMap<>();
+        tasks.forEach(task -> inodes.put(task, StorageProfile.getInode(task.source())));
+        return tasks.stream()
+                .sorted(Comparator.comparingLong(inodes::get))
+                .toList();
+    }
+
+    /**
+     * Run single {@link CopyTask} holding permits of source and target devices
+     *
+     * @param task        {@link CopyTask}
+     * @param progressBar {@link ProgressBar} for progress indicating in bytes
+     * @param transfer    {@link Transfer} that executes {@link CopyTask}
+     * @return {@link String} error or null if transfer was successful
+     * @throws InterruptedException if interrupted while waiting for device permits
+     */
+    private String runWithDevicePermits(CopyTask task, ProgressBar progressBar, Transfer transfer) throws InterruptedException {
+        List<Semaphore> semaphores = getDeviceSemaphores(task);
+        List<Semaphore> acquired = new ArrayList<>();
+        try {
+            for (Semaphore semaphore : semaphores) {
+                semaphore.acquire();
+                acquired.add(semaphore);
+            }
+            return transfer.execute(task, progressBar);
+        } finally {
+            acquired.forEach(Semaphore::release);
+        }
+    }
+
+    /**
+     * Transfer data from source {@link Path} into new target {@link Path}. Partially written target is removed on failure
+     *
+     * @param source      source {@link Path}
+     * @param target      target {@link Path}
+     * @param progressBar {@link ProgressBar} for progress indicating in bytes
+     * @throws IOException if an I/O error has occurred or target already exists
+     */
+    private void transfer(Path source, Path target, ProgressBar progressBar) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            try {
+                long size = in.size();
+                long chunkSize = IoThrottle.limitChunkSize(CHUNK_SIZE);
+                long position = 0;
+                while (position < size) {
+                    long count = Math.min(chunkSize, size - position);
+                    IoThrottle.acquireRead(count);
+                    IoThrottle.acquireWrite(count);
+
+                    long transferred = in.transferTo(position, count, out);
+                    if (transferred <= 0) {
+                        throw new IOException("Unable to transfer data from [" + source + "]");
+                    }
+                    position += transferred;
+                    progressBar.stepBy(transferred);
+                }
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(target);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Transfer data from source {@link Path} into new target {@link Path} computing {@link CRC32C} checksum on the fly,
+     * then flush target, read it back from storage and verify it, see {@link #checksumUncached(Path, ByteBuffer)}.
+     * Target gets modification time of source. Target is removed on any failure
+     *
+     * @param source      source {@link Path}
+     * @param target      target {@link Path}
+     * @param progressBar {@link ProgressBar} for progress indicating in bytes
+     * @return verified {@link CRC32C} checksum
+     * @throws IOException if an I/O error has occurred, target already exists or checksums don't match
+     */
+    private long transferVerified(Path source, Path target, ProgressBar progressBar) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        CRC32C sourceChecksum = new CRC32C();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            try {
+                clear(buffer);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    int read = buffer.remaining();
+                    IoThrottle.acquireRead(read);
+                    sourceChecksum.update(buffer.duplicate());
+
+                    IoThrottle.acquireWrite(read);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    clear(buffer);
+                    progressBar.stepBy(read);
+                }
+                out.force(true);
+            } catch (IOException e) {
+                FileUtils.deleteQuietly(target);
+                throw e;
+            }
+        }
+
+        try {
+            long targetChecksum = checksumUncached(target, buffer);
+            if (targetChecksum != sourceChecksum.getValue()) {
+                throw new IOException(String.format("Checksum mismatch: source %08x, target %08x", sourceChecksum.getValue(), targetChecksum));
+            }
+            Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(target);
+            throw e;
+        }
+        return sourceChecksum.getValue();
+    }
+
+    /**
+     * Compute {@link CRC32C} checksum of {@link Path}
+     *
+     * @param path   input {@link Path}
+     * @param buffer {@link ByteBuffer} for reading
+     * @return {@link CRC32C} checksum
+     * @throws IOException if an I/O error has occurred
+     */
+    private static long checksum(Path path, ByteBuffer buffer) throws IOException {
+        CRC32C checksum = new CRC32C();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            clear(buffer);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                IoThrottle.acquireRead(buffer.remaining());
+                checksum.update(buffer);
+                clear(buffer);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Compute {@link CRC32C} checksum of {@link Path} reading it with direct I/O, so data comes from storage device
+     * and not from page cache filled by preceding write. File must be flushed before. Filesystems that don't support
+     * direct I/O, like tmpfs, keep data only in page cache, so there it is read with given {@link ByteBuffer} as usual
+     *
+     * @param path   input {@link Path}
+     * @param buffer {@link ByteBuffer} for reading if direct I/O is not supported
+     * @return {@link CRC32C} checksum
+     * @throws IOException if an I/O error has occurred
+     */
+    private static long checksumUncached(Path path, ByteBuffer buffer) throws IOException {
+        int blockSize;
+        FileChannel channel;
+        try {
+            blockSize = (int) Files.getFileStore(path).getBlockSize();
+            if (blockSize > MAX_BLOCK_SIZE) {
+                return checksum(path, buffer);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+        } catch (IOException | UnsupportedOperationException e) {
+            return checksum(path, buffer);
+        }
+
+        CRC32C checksum = new CRC32C();
+        ByteBuffer alignedBuffer = UNCACHED_BUFFERS.get().clear().alignedSlice(blockSize);
+        try (channel) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                // Every read must start at block boundary, only the last one may return less than block
+                alignedBuffer.clear();
+                alignedBuffer.limit((int) Math.max(blockSize, IoThrottle.limitChunkSize(BUFFER_SIZE) / blockSize * blockSize));
+                int read = channel.read(alignedBuffer, position);
+                if (read <= 0) {
+                    throw new IOException("Unable to read back [" + path + "]");
+                }
+
+                IoThrottle.acquireRead(read);
+                alignedBuffer.flip();
+                checksum.update(alignedBuffer);
+                position += read;
+            }
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Clear {@link ByteBuffer} and limit it to chunk size allowed by {@link IoThrottle}
+     *
+     * @param buffer {@link ByteBuffer}
+     */
+    private static void clear(ByteBuffer buffer) {
+        buffer.clear();
+        buffer.limit((int) IoThrottle.limitChunkSize(buffer.capacity()));
+    }
+
+    /**
+     * Get {@link Semaphore} for every distinct device of {@link CopyTask} source and target in stable order, so tasks
+     * always acquire them in the same order and can't deadlock
+     *
+     * @param task {@link CopyTask}
+     * @return {@link List} of {@link Semaphore}
+     */
+    private List<Semaphore> getDeviceSemaphores(CopyTask task) {
+        Map<String, Path> devices = new TreeMap<>();
+        devices.put(FileUtils.getDeviceId(task.source()), task.source());
+        devices.putIfAbsent(FileUtils.getDeviceId(task.target().getParent()), task.target().getParent());
+        return devices.entrySet()
+                .stream()
+                .map(device -> deviceSemaphores.computeIfAbsent(
+                        device.getKey(),
+                        key -> new Semaphore(StorageProfile.isRotational(device.getValue()) ? 1 : perDeviceLimit, true)
+                ))
+                .toList();
+    }
+
+    /**
+     * Single {@link CopyTask} execution strategy
+     */
+    @FunctionalInterface
+    private interface Transfer {
+
+        /**
+         * Execute {@link CopyTask}
+         *
+         * @param task        {@link CopyTask}
+         * @param progressBar {@link ProgressBar} for progress indicating in bytes
+         * @return {@link String} error or null if transfer was successful
+         */
+        String execute(CopyTask task, ProgressBar progressBar);
+    }
+}
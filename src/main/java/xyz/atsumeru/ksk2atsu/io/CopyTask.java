@@ -0,0 +1,12 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.nio.file.Path;
+
+/**
+ * Single file transfer for {@link CopyEngine}
+ *
+ * @param source source {@link Path}
+ * @param target target {@link Path}. Must not exist
+ */
+public record CopyTask(Path source, Path target) {
+}
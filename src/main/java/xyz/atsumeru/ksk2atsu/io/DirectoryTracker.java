@@ -0,0 +1,91 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import xyz.atsumeru.ksk2atsu.App;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks directories touched by pipeline stage. Directories are created only once per stage instead of calling
+ * {@link Files#createDirectories(Path, java.nio.file.attribute.FileAttribute[])} for every file, and directories from
+ * which files were moved away are removed bottom-up if they became empty, so output tree is never walked for cleanup
+ */
+public class DirectoryTracker {
+    private final Set<Path> createdDirs = ConcurrentHashMap.newKeySet();
+    private final Set<Path> vacatedDirs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create directory with all parents unless it was already created by this {@link DirectoryTracker}
+     *
+     * @param dir directory {@link Path}
+     * @return true if directory exists
+     */
+    public boolean createDirectories(Path dir) {
+        Path normalizedDir = dir.toAbsolutePath().normalize();
+        if (createdDirs.contains(normalizedDir)) {
+            return true;
+        }
+
+        try {
+            IoThrottle.acquireOperation();
+            Files.createDirectories(normalizedDir);
+            createdDirs.add(normalizedDir);
+            return true;
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Record that file was moved away from given directory, so directory may become empty
+     *
+     * @param dir directory {@link Path}
+     */
+    public void vacated(Path dir) {
+        vacatedDirs.add(dir.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Delete vacated directories that became empty, deepest first. Parent of deleted directory is checked too, up to
+     * given root directory which is never deleted. Non-empty directory is detected by failed deletion, so directory
+     * content is never listed
+     *
+     * @param rootDir root directory {@link Path}
+     */
+    public void deleteEmptyDirectories(Path rootDir) {
+        Path root = rootDir.toAbsolutePath().normalize();
+        TreeSet<Path> candidates = new TreeSet<>(Comparator.comparingInt(Path::getNameCount).reversed().thenComparing(Comparator.naturalOrder()));
+        candidates.addAll(vacatedDirs);
+
+        while (!candidates.isEmpty()) {
+            Path dir = candidates.pollFirst();
+            if (dir.equals(root) || !dir.startsWith(root)) {
+                continue;
+            }
+
+            try {
+                IoThrottle.acquireOperation();
+                Files.delete(dir);
+                createdDirs.remove(dir);
+                candidates.add(dir.getParent());
+            } catch (DirectoryNotEmptyException | NoSuchFileException ignored) {
+                // Directory still has content or is already removed
+            } catch (IOException e) {
+                if (App.IS_DEBUG) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        vacatedDirs.clear();
+    }
+}
@@ -0,0 +1,134 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * Parallel recursive directory walker. Every directory is listed in its own fork/join task, so idle workers steal
+ * subdirectories from busy ones and walking is limited by filesystem metadata latency rather than by single thread.
+ * Attributes of every entry are read exactly once
+ */
+public class DirectoryWalker {
+    // Walking is I/O bound, so use more workers than processors to keep metadata requests in flight
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+
+    /**
+     * Recursively collect {@link FileRecord} for all regular files in given directory that match {@link Predicate}.
+     * Symbolic links are not followed
+     *
+     * @param dir    input directory {@link Path}
+     * @param filter {@link Predicate} for {@link FileRecord}
+     * @return {@link List} of {@link FileRecord}
+     */
+    public static List<FileRecord> walk(Path dir, Predicate<FileRecord> filter) {
+        return POOL.invoke(new WalkTask(dir, filter));
+    }
+
+    /**
+     * Non-recursive list of subdirectories in given directory
+     *
+     * @param dir input directory {@link Path}
+     * @return {@link List} of directory {@link Path}
+     * @throws IOException if directory can't be listed
+     */
+    public static List<Path> listDirs(Path dir) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                if (readAttributes(entry).map(BasicFileAttributes::isDirectory).orElse(false)) {
+                    dirs.add(entry);
+                }
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Read {@link BasicFileAttributes} of entry without following symbolic links
+     *
+     * @param entry entry {@link Path}
+     * @return {@link BasicFileAttributes} or empty {@link Optional} if entry disappeared or can't be read
+     */
+    private static Optional<BasicFileAttributes> readAttributes(Path entry) {
+        try {
+            return Optional.of(Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Get lowercase extension from file name
+     *
+     * @param fileName {@link String} file name
+     * @return lowercase extension without dot or empty {@link String}
+     */
+    private static String getExtension(String fileName) {
+        int index = fileName.lastIndexOf('.');
+        return index >= 0 ? fileName.substring(index + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * {@link RecursiveTask} that lists single directory and forks tasks for its subdirectories
+     */
+    private static class WalkTask extends RecursiveTask<List<FileRecord>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Predicate<FileRecord> filter;
+
+        private WalkTask(Path dir, Predicate<FileRecord> filter) {
+            this.dir = dir;
+            this.filter = filter;
+        }
+
+        @Override
+        protected List<FileRecord> compute() {
+            List<FileRecord> records = new ArrayList<>();
+            List<WalkTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attributes = readAttributes(entry).orElse(null);
+                    if (attributes == null) {
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        WalkTask subTask = new WalkTask(entry, filter);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    } else if (attributes.isRegularFile()) {
+                        FileRecord record = new FileRecord(
+                                entry,
+                                attributes.size(),
+                                attributes.lastModifiedTime().toMillis(),
+                                getExtension(entry.getFileName().toString()),
+                                StorageProfile.parseInode(attributes.fileKey())
+                        );
+                        if (filter.test(record)) {
+                            records.add(record);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            for (WalkTask subTask : subTasks) {
+                records.addAll(subTask.join());
+            }
+            return records;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.nio.file.Path;
+
+/**
+ * Duplicate archive detected by content fingerprint or by the same link with lower resolution
+ *
+ * @param duplicate   {@link Path} of duplicate archive
+ * @param kept        {@link Path} of archive that is kept
+ * @param isIdentical true if archives have identical content, false if duplicate is lower resolution variant
+ * @param isLinked    true if duplicate was replaced with hard link to kept archive
+ * @param size        size of duplicate archive in bytes
+ */
+public record Duplicate(Path duplicate, Path kept, boolean isIdentical, boolean isLinked, long size) {
+
+    /**
+     * Create human-readable description of duplicate for logs
+     *
+     * @return {@link String} description
+     */
+    public String describe() {
+        return "[" + duplicate + "] -> [" + kept + "]: "
+                + (isIdentical ? "identical content" : "lower resolution variant")
+                + (isLinked ? ", replaced with hard link" : "");
+    }
+}
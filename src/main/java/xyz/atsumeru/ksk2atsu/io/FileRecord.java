@@ -0,0 +1,25 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.io.File;
+import java.nio.file.Path;
+
+/**
+ * Lightweight snapshot of regular file attributes collected by {@link DirectoryWalker}
+ *
+ * @param path         file {@link Path}
+ * @param size         file size in bytes
+ * @param lastModified last modification time in milliseconds
+ * @param extension    lowercase file extension without dot or empty {@link String}
+ * @param inode        inode number or -1 if filesystem doesn't expose it. Used as approximation of physical location
+ */
+public record FileRecord(Path path, long size, long lastModified, String extension, long inode) {
+
+    /**
+     * Get file as {@link File}
+     *
+     * @return {@link File}
+     */
+    public File toFile() {
+        return path.toFile();
+    }
+}
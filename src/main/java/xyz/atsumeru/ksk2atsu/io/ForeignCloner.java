@@ -0,0 +1,166 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * {@link Cloner} that calls <b>ioctl(FICLONE)</b> through Foreign Function API of <b>jdk.incubator.foreign</b> module.
+ * Module exists only in Java 17 and 18 and must be enabled with <b>--add-modules</b>, so its API is linked reflectively
+ * and app is compiled and launched without it on any Java version. Constants are the same for Linux x86_64 and aarch64
+ * <p>
+ * Java 17 can't capture call state, so errno is read right after failed call in the same thread
+ */
+class ForeignCloner implements Cloner {
+    static final String FOREIGN_MODULE = "jdk.incubator.foreign";
+    private static final String FOREIGN_PACKAGE = FOREIGN_MODULE + ".";
+
+    private static final long FICLONE = 0x40049409L;
+    private static final int O_RDONLY = 0;
+    private static final int O_WRONLY = 1;
+
+    private final Object globalScope;
+    private final Method newConfinedScope;
+    private final Method closeScope;
+    private final Method toCString;
+    private final Method segmentAddress;
+    private final Method asSegment;
+    private final Method getInt;
+
+    private final MethodHandle open;
+    private final MethodHandle close;
+    private final MethodHandle ioctl;
+    private final MethodHandle errnoLocation;
+
+    /**
+     * Create {@link ForeignCloner} linking Foreign Function API of Java 17
+     *
+     * @throws ReflectiveOperationException if API of <b>jdk.incubator.foreign</b> module differs from Java 17 one or
+     *                                      native access is not enabled with <b>--enable-native-access</b>
+     */
+    ForeignCloner() throws ReflectiveOperationException {
+        Class<?> linkerClass = Class.forName(FOREIGN_PACKAGE + "CLinker");
+        Class<?> layoutClass = Class.forName(FOREIGN_PACKAGE + "MemoryLayout");
+        Class<?> descriptorClass = Class.forName(FOREIGN_PACKAGE + "FunctionDescriptor");
+        Class<?> addressableClass = Class.forName(FOREIGN_PACKAGE + "Addressable");
+        Class<?> addressClass = Class.forName(FOREIGN_PACKAGE + "MemoryAddress");
+        Class<?> segmentClass = Class.forName(FOREIGN_PACKAGE + "MemorySegment");
+        Class<?> scopeClass = Class.forName(FOREIGN_PACKAGE + "ResourceScope");
+        Class<?> symbolLookupClass = Class.forName(FOREIGN_PACKAGE + "SymbolLookup");
+
+        globalScope = scopeClass.getMethod("globalScope").invoke(null);
+        newConfinedScope = scopeClass.getMethod("newConfinedScope");
+        closeScope = scopeClass.getMethod("close");
+        toCString = linkerClass.getMethod("toCString", String.class, scopeClass);
+        segmentAddress = segmentClass.getMethod("address");
+        asSegment = addressClass.getMethod("asSegment", long.class, scopeClass);
+        getInt = Class.forName(FOREIGN_PACKAGE + "MemoryAccess").getMethod("getInt", segmentClass);
+
+        Object cInt = linkerClass.getField("C_INT").get(null);
+        Object cLong = linkerClass.getField("C_LONG").get(null);
+        Object cPointer = linkerClass.getField("C_POINTER").get(null);
+        Object cVarArgInt = linkerClass.getMethod("asVarArg", layoutClass).invoke(null, cInt);
+
+        Object linker = linkerClass.getMethod("getInstance").invoke(null);
+        Object systemLookup = linkerClass.getMethod("systemLookup").invoke(null);
+        Method lookup = symbolLookupClass.getMethod("lookup", String.class);
+        Method downcallHandle = linkerClass.getMethod("downcallHandle", addressableClass, MethodType.class, descriptorClass);
+        Method functionDescriptor = descriptorClass.getMethod("of", layoutClass, layoutClass.arrayType());
+
+        Downcall downcall = (name, type, result, arguments) -> {
+            Object argumentsArray = Array.newInstance(layoutClass, arguments.length);
+            for (int i = 0; i < arguments.length; i++) {
+                Array.set(argumentsArray, i, arguments[i]);
+            }
+
+            Object symbol = ((Optional<?>) lookup.invoke(systemLookup, name))
+                    .orElseThrow(() -> new NoSuchMethodException(name));
+            Object descriptor = functionDescriptor.invoke(null, result, argumentsArray);
+            return (MethodHandle) downcallHandle.invoke(linker, symbol, type, descriptor);
+        };
+
+        open = downcall.create("open", MethodType.methodType(int.class, addressClass, int.class), cInt, cPointer, cInt);
+        close = downcall.create("close", MethodType.methodType(int.class, int.class), cInt, cInt);
+        ioctl = downcall.create("ioctl", MethodType.methodType(int.class, int.class, long.class, int.class), cInt, cInt, cLong, cVarArgInt);
+        errnoLocation = downcall.create("__errno_location", MethodType.methodType(addressClass), cPointer);
+    }
+
+    @Override
+    public int clone(Path source, Path target) throws IOException {
+        try {
+            Object scope = newConfinedScope.invoke(null);
+            try {
+                int sourceFd = (int) open.invoke(toCString(source, scope), O_RDONLY);
+                if (sourceFd < 0) {
+                    return errno();
+                }
+
+                try {
+                    int targetFd = (int) open.invoke(toCString(target, scope), O_WRONLY);
+                    if (targetFd < 0) {
+                        return errno();
+                    }
+
+                    try {
+                        int result = (int) ioctl.invoke(targetFd, FICLONE, sourceFd);
+                        return result == 0 ? 0 : errno();
+                    } finally {
+                        int ignored = (int) close.invoke(targetFd);
+                    }
+                } finally {
+                    int ignored = (int) close.invoke(sourceFd);
+                }
+            } finally {
+                closeScope.invoke(scope);
+            }
+        } catch (Throwable e) {
+            throw new IOException("Unable to clone [" + source + "]", e);
+        }
+    }
+
+    /**
+     * Allocate C string with given {@link Path} in given scope
+     *
+     * @param path  {@link Path}
+     * @param scope <b>ResourceScope</b> of allocation
+     * @return <b>MemoryAddress</b> of C string
+     * @throws ReflectiveOperationException if allocation failed
+     */
+    private Object toCString(Path path, Object scope) throws ReflectiveOperationException {
+        return segmentAddress.invoke(toCString.invoke(null, path.toString(), scope));
+    }
+
+    /**
+     * Read errno of last failed call in current thread
+     *
+     * @return errno
+     * @throws Throwable if call failed
+     */
+    private int errno() throws Throwable {
+        Object location = errnoLocation.invoke();
+        return (int) getInt.invoke(null, asSegment.invoke(location, (long) Integer.BYTES, globalScope));
+    }
+
+    /**
+     * Creates downcall {@link MethodHandle} of libc function
+     */
+    @FunctionalInterface
+    private interface Downcall {
+
+        /**
+         * Create downcall {@link MethodHandle} of libc function
+         *
+         * @param name      function name
+         * @param type      {@link MethodType} of {@link MethodHandle}
+         * @param result    <b>MemoryLayout</b> of function result
+         * @param arguments <b>MemoryLayout</b> of function arguments
+         * @return {@link MethodHandle}
+         * @throws ReflectiveOperationException if function or API can't be linked
+         */
+        MethodHandle create(String name, MethodType type, Object result, Object... arguments) throws ReflectiveOperationException;
+    }
+}
@@ -0,0 +1,181 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import xyz.atsumeru.ksk2atsu.utils.TokenBucket;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Global disk bandwidth and IOPS limiter shared by copying, archive scanning and metadata writing, so migration running
+ * in background doesn't starve other disk users. Every limit is {@link TokenBucket} with one second burst. All limits
+ * are disabled by default
+ */
+public class IoThrottle {
+    private static final long MIN_CHUNK_SIZE = 64 * 1024;
+    private static final long READ_CHUNK_SIZE = 1024 * 1024;
+    // Chunks are limited to this part of second, so single transfer never holds disk for long
+    private static final int CHUNKS_PER_SECOND = 10;
+
+    private static double readBytesPerSecond;
+    private static double writeBytesPerSecond;
+
+    private static TokenBucket readBytes = TokenBucket.unlimited();
+    private static TokenBucket writeBytes = TokenBucket.unlimited();
+    private static TokenBucket operations = TokenBucket.unlimited();
+
+    /**
+     * Configure limits. Zero or negative value disables corresponding limit
+     *
+     * @param readBytesPerSecond  maximum amount of bytes read per second
+     * @param writeBytesPerSecond maximum amount of bytes written per second
+     * @param operationsPerSecond maximum amount of I/O operations per second
+     */
+    public static void configure(double readBytesPerSecond, double writeBytesPerSecond, double operationsPerSecond) {
+        IoThrottle.readBytesPerSecond = readBytesPerSecond;
+        IoThrottle.writeBytesPerSecond = writeBytesPerSecond;
+        readBytes = new TokenBucket(readBytesPerSecond, readBytesPerSecond);
+        writeBytes = new TokenBucket(writeBytesPerSecond, writeBytesPerSecond);
+        operations = new TokenBucket(operationsPerSecond, operationsPerSecond);
+    }
+
+    /**
+     * Take permits for single read operation of given size, blocking while limits are exceeded
+     *
+     * @param bytes amount of bytes to read
+     */
+    public static void acquireRead(long bytes) {
+        operations.acquire();
+        readBytes.acquire(bytes);
+    }
+
+    /**
+     * Take permits for single write operation of given size, blocking while limits are exceeded
+     *
+     * @param bytes amount of bytes to write
+     */
+    public static void acquireWrite(long bytes) {
+        operations.acquire();
+        writeBytes.acquire(bytes);
+    }
+
+    /**
+     * Take permit for single I/O operation without data, e.g. file opening or renaming, blocking while limit is exceeded
+     */
+    public static void acquireOperation() {
+        operations.acquire();
+    }
+
+    /**
+     * Limit size of single transfer chunk, so throttled transfer is split into short bursts instead of holding disk
+     * for whole second and then sleeping
+     *
+     * @param chunkSize preferred chunk size in bytes
+     * @return chunk size in bytes
+     */
+    public static long limitChunkSize(long chunkSize) {
+        double rate = Math.min(
+                readBytesPerSecond > 0 ? readBytesPerSecond : Double.MAX_VALUE,
+                writeBytesPerSecond > 0 ? writeBytesPerSecond : Double.MAX_VALUE
+        );
+        return Math.max(MIN_CHUNK_SIZE, Math.min(chunkSize, (long) (rate / CHUNKS_PER_SECOND)));
+    }
+
+    /**
+     * Wrap given {@link InputStream} of already opened file, so read data takes read permits. Opening of file must be
+     * charged by caller with {@link #acquireOperation()}
+     *
+     * @param inputStream {@link InputStream} to wrap
+     * @return throttled {@link InputStream} or given one if read limits are disabled
+     * @see #throttle(InputStream, double)
+     */
+    public static InputStream throttle(InputStream inputStream) {
+        return throttle(inputStream, 1);
+    }
+
+    /**
+     * Wrap given {@link InputStream} of already opened file, so read data takes read permits. Permits are taken for
+     * disk bytes, e.g. compressed bytes of zip entry, in chunks with single I/O operation per chunk instead of on every
+     * read call, so small buffered reads of headers don't exhaust IOPS limit. Bytes of last incomplete chunk are taken
+     * on close without operation
+     *
+     * @param inputStream    {@link InputStream} to wrap
+     * @param diskBytesRatio amount of disk bytes per read byte, e.g. compressed to uncompressed size ratio of zip entry
+     * @return throttled {@link InputStream} or given one if read limits are disabled
+     */
+    public static InputStream throttle(InputStream inputStream, double diskBytesRatio) {
+        if (readBytes.isUnlimited() && operations.isUnlimited()) {
+            return inputStream;
+        }
+        return new ThrottledInputStream(inputStream, diskBytesRatio);
+    }
+
+    /**
+     * {@link FilterInputStream} that counts read and skipped bytes and takes permits for them in chunks
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final double diskBytesRatio;
+        private final long chunkSize = limitChunkSize(READ_CHUNK_SIZE);
+        // Read bytes for which permits are not taken yet
+        private long pendingBytes;
+
+        private ThrottledInputStream(InputStream inputStream, double diskBytesRatio) {
+            super(inputStream);
+            this.diskBytesRatio = diskBytesRatio;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long diskBytes = (long) Math.ceil(pendingBytes * diskBytesRatio);
+                pendingBytes = 0;
+                if (diskBytes > 0) {
+                    readBytes.acquire(diskBytes);
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        /**
+         * Count read bytes and take permits for them once they fill a chunk
+         *
+         * @param bytes amount of read bytes
+         */
+        private void count(long bytes) {
+            pendingBytes += bytes;
+            long diskBytes = (long) (pendingBytes * diskBytesRatio);
+            if (diskBytes >= chunkSize) {
+                acquireRead(diskBytes);
+                pendingBytes = 0;
+            }
+        }
+    }
+}
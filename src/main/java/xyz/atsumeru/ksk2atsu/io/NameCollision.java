@@ -0,0 +1,24 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import java.nio.file.Path;
+
+/**
+ * Target name collision detected and resolved by {@link NameRegistry}
+ *
+ * @param source   source {@link Path} of file
+ * @param target   wanted target {@link Path} that is already taken
+ * @param resolved {@link Path} that was reserved instead or null if file is skipped
+ */
+public record NameCollision(Path source, Path target, Path resolved) {
+
+    /**
+     * Create human-readable description of collision for logs
+     *
+     * @return {@link String} description
+     */
+    public String describe() {
+        return resolved != null
+                ? "[" + source + "] -> [" + target + "]: name is taken, placed as [" + resolved.getFileName() + "]"
+                : "[" + source + "] -> [" + target + "]: file already exists, skipped";
+    }
+}
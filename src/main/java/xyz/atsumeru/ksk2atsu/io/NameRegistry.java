@@ -0,0 +1,124 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * In-memory registry of target file names. Targets are reserved before any file is moved, so name collisions are
+ * detected without filesystem calls and resolved deterministically instead of failing with {@link java.nio.file.FileAlreadyExistsException}
+ * <p>
+ * Names are compared case-insensitively, so planned names are safe for case-insensitive filesystems too. Every collision
+ * is recorded as {@link NameCollision}
+ */
+public class NameRegistry {
+    private final Set<String> existing = new HashSet<>();
+    private final Set<String> reserved = new HashSet<>();
+    private final List<NameCollision> collisions;
+    private final boolean skipExisting;
+
+    /**
+     * Create {@link NameRegistry}
+     *
+     * @param collisions   {@link List} into which {@link NameCollision} will be recorded
+     * @param skipExisting if true, files which target is occupied by existing file are skipped, e.g. when they are already
+     *                     migrated. Otherwise, they get another name
+     */
+    public NameRegistry(List<NameCollision> collisions, boolean skipExisting) {
+        this.collisions = collisions;
+        this.skipExisting = skipExisting;
+    }
+
+    /**
+     * Mark all given {@link FileRecord} as existing files that occupy their names
+     *
+     * @param records {@link List} of {@link FileRecord}
+     */
+    public void occupy(List<FileRecord> records) {
+        records.forEach(record -> existing.add(createKey(record.path())));
+    }
+
+    /**
+     * Reserve target name for source {@link Path}. First free candidate is reserved. If all candidates are taken,
+     * numeric suffix is added to first candidate, e.g. <b>name (2).cbz</b>. Candidate that equals source itself is
+     * always free
+     *
+     * @param source     source {@link Path} of file
+     * @param candidates {@link List} of target {@link Path} candidates in order of preference
+     * @return reserved target {@link Path} or null if file must be skipped
+     */
+    public synchronized Path reserve(Path source, List<Path> candidates) {
+        Path target = candidates.get(0);
+        String sourceKey = createKey(source);
+
+        for (Path candidate : candidates) {
+            String key = createKey(candidate);
+            if (key.equals(sourceKey) && !reserved.contains(key)) {
+                reserved.add(key);
+                return candidate;
+            }
+        }
+
+        if (skipExisting && existing.contains(createKey(target))) {
+            collisions.add(new NameCollision(source, target, null));
+            return null;
+        }
+
+        for (Path candidate : candidates) {
+            if (tryReserve(candidate)) {
+                return resolved(source, target, candidate);
+            }
+        }
+
+        File targetFile = target.toFile();
+        String name = FileUtils.getFileNameWithoutExtension(targetFile);
+        String extension = FileUtils.getFileExtension(targetFile);
+        for (int i = 2; ; i++) {
+            Path candidate = target.resolveSibling(String.format("%s (%d).%s", name, i, extension));
+            if (tryReserve(candidate)) {
+                return resolved(source, target, candidate);
+            }
+        }
+    }
+
+    /**
+     * Reserve given {@link Path} if it is not taken by existing file or another reservation
+     *
+     * @param candidate target {@link Path}
+     * @return true if {@link Path} was reserved
+     */
+    private boolean tryReserve(Path candidate) {
+        String key = createKey(candidate);
+        return !existing.contains(key) && reserved.add(key);
+    }
+
+    /**
+     * Record {@link NameCollision} if reserved {@link Path} differs from wanted one
+     *
+     * @param source   source {@link Path} of file
+     * @param target   wanted target {@link Path}
+     * @param resolved reserved target {@link Path}
+     * @return reserved target {@link Path}
+     */
+    private Path resolved(Path source, Path target, Path resolved) {
+        if (!resolved.equals(target)) {
+            collisions.add(new NameCollision(source, target, resolved));
+        }
+        return resolved;
+    }
+
+    /**
+     * Create case-insensitive registry key for {@link Path}
+     *
+     * @param path {@link Path}
+     * @return {@link String} key
+     */
+    private static String createKey(Path path) {
+        return path.toAbsolutePath().normalize().toString().toLowerCase(Locale.ROOT);
+    }
+}
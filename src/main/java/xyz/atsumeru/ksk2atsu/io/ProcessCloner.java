@@ -0,0 +1,92 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import xyz.atsumeru.ksk2atsu.App;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * {@link Cloner} backed by single long-lived helper process that clones files with <b>cp --reflink=always</b>, which
+ * issues <b>ioctl(FICLONE)</b>. Used when Foreign Function API is not available. Paths are passed as NUL-terminated
+ * pairs and helper answers with empty line on success or with error message, from which errno is detected
+ */
+class ProcessCloner implements Cloner {
+    private static final String SCRIPT = "while IFS= read -r -d '' source && IFS= read -r -d '' target; do "
+            + "if output=$(cp --reflink=always -- \"$source\" \"$target\" 2>&1); then echo; "
+            + "else printf '%s\\n' \"${output//$'\\n'/ }\"; fi; done";
+
+    // Error messages of C locale for errno values that mean that device doesn't support cloning
+    private static final Map<String, Integer> ERRORS = Map.of(
+            "Operation not supported", EOPNOTSUPP,
+            "Invalid cross-device link", EXDEV,
+            "Invalid argument", EINVAL
+    );
+
+    private Process process;
+    private Writer writer;
+    private BufferedReader reader;
+
+    /**
+     * Clone file with helper process. Helper is started on first call and serves all next ones, calls are serialized
+     *
+     * @return 0 if file was cloned, errno detected from error message or {@link #EOPNOTSUPP} if helper is not available
+     */
+    @Override
+    public synchronized int clone(Path source, Path target) {
+        try {
+            if (process == null) {
+                start();
+            }
+
+            writer.write(source + "\0" + target + "\0");
+            writer.flush();
+
+            String output = reader.readLine();
+            if (output == null) {
+                throw new EOFException("Clone helper process exited");
+            }
+            return output.isEmpty() ? 0 : parseErrno(output);
+        } catch (IOException e) {
+            // bash or cp is not available
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            return EOPNOTSUPP;
+        }
+    }
+
+    /**
+     * Start helper process. It exits by itself when its input is closed together with app
+     *
+     * @throws IOException if process can't be started
+     */
+    private void start() throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder("bash", "-c", SCRIPT).redirectErrorStream(true);
+        processBuilder.environment().put("LC_ALL", "C");
+
+        process = processBuilder.start();
+        writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Detect errno from <b>cp</b> error message
+     *
+     * @param output <b>cp</b> error message
+     * @return detected errno or {@link #EIO} for other errors
+     */
+    private static int parseErrno(String output) {
+        if (App.IS_DEBUG) {
+            System.err.println(output);
+        }
+
+        return ERRORS.entrySet()
+                .stream()
+                .filter(entry -> output.endsWith(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(EIO);
+    }
+}
@@ -0,0 +1,104 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflink (copy-on-write clone) support. Cloned file shares data blocks with original until one of them is changed,
+ * so cloning is near-instant and takes no additional space on filesystems like Btrfs and XFS
+ * <p>
+ * Clone is made with <b>ioctl(FICLONE)</b> called through Foreign Function API by {@link ForeignCloner} when app is
+ * launched on Java 17 or 18 with <b>--add-modules jdk.incubator.foreign --enable-native-access=ALL-UNNAMED</b>.
+ * Otherwise single long-lived <b>cp --reflink=always</b> helper process of {@link ProcessCloner} is used
+ */
+public class Reflink {
+    private static final boolean IS_LINUX = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux");
+
+    // Devices that don't support cloning, so next clones fall back to copying without trying to clone
+    private static final Set<String> UNSUPPORTED_DEVICES = ConcurrentHashMap.newKeySet();
+
+    private static final Cloner CLONER = IS_LINUX ? createCloner() : null;
+
+    /**
+     * Clone source {@link Path} into new target {@link Path}. Target is created exclusively, so file created
+     * concurrently is never overwritten. Device pair is marked as unsupported only if filesystem doesn't support
+     * cloning, other errors fall back to copying of single file
+     *
+     * @param source source {@link Path}
+     * @param target target {@link Path}. Must not exist
+     * @return true if file was cloned, false if cloning is not supported and file must be copied
+     * @throws IOException if target already exists
+     */
+    public static boolean clone(Path source, Path target) throws IOException {
+        String device = getDeviceKey(source, target);
+        if (CLONER == null || UNSUPPORTED_DEVICES.contains(device)) {
+            return false;
+        }
+
+        Files.createFile(target);
+
+        int errno;
+        try {
+            errno = CLONER.clone(source, target);
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            errno = Cloner.EIO;
+        }
+
+        if (errno == 0) {
+            return true;
+        }
+
+        FileUtils.deleteQuietly(target);
+        if (errno == Cloner.EOPNOTSUPP || errno == Cloner.EXDEV || errno == Cloner.EINVAL) {
+            UNSUPPORTED_DEVICES.add(device);
+        } else if (App.IS_DEBUG) {
+            System.err.println("Unable to clone [" + source + "]: errno " + errno);
+        }
+        return false;
+    }
+
+    /**
+     * Create {@link ForeignCloner} if <b>jdk.incubator.foreign</b> module of Java 17 or 18 and native access are enabled,
+     * otherwise {@link ProcessCloner}
+     *
+     * @return {@link Cloner}
+     */
+    private static Cloner createCloner() {
+        if (ModuleLayer.boot().findModule(ForeignCloner.FOREIGN_MODULE).isPresent()) {
+            try {
+                return new ForeignCloner();
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // Native access is not enabled or API of incubator module differs from Java 17 one
+                if (App.IS_DEBUG) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return new ProcessCloner();
+    }
+
+    /**
+     * Create key for pair of source and target devices
+     *
+     * @param source source {@link Path}
+     * @param target target {@link Path}
+     * @return {@link String} key of source and target {@link java.nio.file.FileStore}
+     */
+    private static String getDeviceKey(Path source, Path target) {
+        try {
+            return Files.getFileStore(source).name() + " -> " + Files.getFileStore(target.getParent()).name();
+        } catch (IOException e) {
+            return source.toAbsolutePath().getRoot() + " -> " + target.toAbsolutePath().getRoot();
+        }
+    }
+}
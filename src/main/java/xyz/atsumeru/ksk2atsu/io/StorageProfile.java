@@ -0,0 +1,133 @@
+package xyz.atsumeru.ksk2atsu.io;
+
+import xyz.atsumeru.ksk2atsu.database.enums.StorageType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * I/O ordering policy depending on storage type. Spinning disks are accessed sequentially in physical order
+ * approximated by inode numbers, so heads don't thrash between files. Solid state drives keep full parallelism
+ * <p>
+ * Storage type is detected on Linux from <b>/sys/dev/block/{major}:{minor}/queue/rotational</b>. Storage that can't
+ * be detected (network filesystems, other OS) is considered solid state unless overridden with {@link #configure(StorageType)}
+ */
+public class StorageProfile {
+    private static final Path SYS_DEV_BLOCK = Path.of("/sys/dev/block");
+    private static final Map<Long, Boolean> ROTATIONAL_BY_DEVICE = new ConcurrentHashMap<>();
+
+    private static StorageType storageType = StorageType.AUTO;
+
+    /**
+     * Override automatic storage type detection
+     *
+     * @param storageType {@link StorageType} for all paths or {@link StorageType#AUTO} for detection
+     */
+    public static void configure(StorageType storageType) {
+        StorageProfile.storageType = storageType;
+    }
+
+    /**
+     * Check if given {@link Path} is located on spinning disk
+     *
+     * @param path existing {@link Path}
+     * @return true if {@link Path} is located on spinning disk
+     */
+    public static boolean isRotational(Path path) {
+        return switch (storageType) {
+            case HDD -> true;
+            case SSD -> false;
+            case AUTO -> {
+                try {
+                    long device = ((Number) Files.getAttribute(path, "unix:dev")).longValue();
+                    yield ROTATIONAL_BY_DEVICE.computeIfAbsent(device, StorageProfile::detectRotational);
+                } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+                    yield false;
+                }
+            }
+        };
+    }
+
+    /**
+     * Create {@link Stream} for processing given {@link FileRecord} located in given directory. On spinning disk stream
+     * is sequential and sorted by inode, otherwise it is parallel and keeps original order
+     *
+     * @param dir     directory {@link Path} in which all {@link FileRecord} are located
+     * @param records {@link List} of {@link FileRecord}
+     * @return {@link Stream} of {@link FileRecord}
+     */
+    public static Stream<FileRecord> stream(Path dir, List<FileRecord> records) {
+        return isRotational(dir)
+                ? records.stream().sorted(Comparator.comparingLong(FileRecord::inode))
+                : records.parallelStream();
+    }
+
+    /**
+     * Get inode number of {@link Path}
+     *
+     * @param path existing {@link Path}
+     * @return inode number or -1 if it can't be read
+     */
+    public static long getInode(Path path) {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:ino")).longValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse inode number from {@link java.nio.file.attribute.BasicFileAttributes#fileKey()}. On Unix-like systems file key
+     * contains device and inode, e.g. <b>(dev=803,ino=1234)</b>
+     *
+     * @param fileKey file key {@link Object}. May be null
+     * @return inode number or -1 if it can't be parsed
+     */
+    static long parseInode(Object fileKey) {
+        if (fileKey != null) {
+            String key = fileKey.toString();
+            int start = key.indexOf("ino=");
+            if (start >= 0) {
+                start += 4;
+                int end = start;
+                while (end < key.length() && Character.isDigit(key.charAt(end))) {
+                    end++;
+                }
+                if (end > start) {
+                    return Long.parseLong(key.substring(start, end));
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Detect if block device is rotational. Partitions have no queue of their own, so parent device is checked too
+     *
+     * @param device device number from <b>unix:dev</b> attribute
+     * @return true if device is rotational
+     */
+    private static boolean detectRotational(long device) {
+        // Linux dev_t encoding
+        long major = ((device >>> 8) & 0xfff) | ((device >>> 32) & ~0xfffL);
+        long minor = (device & 0xff) | ((device >>> 12) & ~0xffL);
+        try {
+            Path blockDevice = SYS_DEV_BLOCK.resolve(major + ":" + minor).toRealPath();
+            for (Path dir : List.of(blockDevice, blockDevice.getParent())) {
+                Path rotational = dir.resolve("queue").resolve("rotational");
+                if (Files.isReadable(rotational)) {
+                    return Files.readString(rotational).trim().equals("1");
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // not a block device or not Linux
+        }
+        return false;
+    }
+}
@@ -3,48 +3,240 @@ package xyz.atsumeru.ksk2atsu.managers;
 import me.tongfei.progressbar.ProgressBar;
 import xyz.atsumeru.ksk2atsu.App;
 import xyz.atsumeru.ksk2atsu.database.enums.MigrationType;
+import xyz.atsumeru.ksk2atsu.io.ChecksumLog;
+import xyz.atsumeru.ksk2atsu.io.CopyEngine;
+import xyz.atsumeru.ksk2atsu.io.CopyTask;
+import xyz.atsumeru.ksk2atsu.io.DirectoryTracker;
+import xyz.atsumeru.ksk2atsu.io.IoThrottle;
+import xyz.atsumeru.ksk2atsu.io.NameCollision;
+import xyz.atsumeru.ksk2atsu.io.NameRegistry;
+import xyz.atsumeru.ksk2atsu.io.Reflink;
 import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
 import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
 import xyz.atsumeru.ksk2atsu.metadata.YAMLContent;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
 import xyz.atsumeru.ksk2atsu.utils.ProgressBarBuilder;
 import xyz.atsumeru.ksk2atsu.utils.StringUtils;
+import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.CopyOption;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 public class BooksMover {
+    private static final File CHECKSUMS_FILE = new File("./checksums.crc32c");
 
     /**
      * Iterate over archives in directory, parses metadata, Comic Magazine, Issue and resorts them into corresponding directories
+     * <p>
+     * New places are planned with {@link NameRegistry} before any file is transferred. Archives which new place is
+     * occupied by already migrated file are skipped, archives with the same new place get numeric suffix
      *
      * @param workingDir    input {@link File} dir with files
      * @param outputDir     output {@link File} dir where result will be stored
-     * @param migrationType if {@link MigrationType#MOVE}, files from input dir will be moved into output, otherwise copied
+     * @param migrationType if {@link MigrationType#MOVE}, files from input dir will be moved into output, if {@link MigrationType#LINK},
+     *                      hard linked, if {@link MigrationType#CLONE}, reflink cloned, otherwise copied. Sidecar metadata files
+     *                      are moved or copied together with archives
+     * @param copyEngine    {@link CopyEngine} that copies files in parallel if migration type is {@link MigrationType#COPY}
+     *                      or if files can't be hard linked or cloned, and moves files with verification between devices
+     * @param collisions    {@link List} into which {@link NameCollision} will be recorded
+     * @return {@link List} of {@link String} errors
+     */
+    public static List<String> move(File workingDir, File outputDir, MigrationType migrationType, CopyEngine copyEngine, List<NameCollision> collisions) {
+        DirectoryTracker directoryTracker = new DirectoryTracker();
+        List<CopyTask> tasks = createCopyTasks(MetadataParser.parse(workingDir), outputDir, directoryTracker, collisions);
+
+        List<String> errors = new ArrayList<>();
+        if (migrationType == MigrationType.COPY) {
+            errors.addAll(copyEngine.copy(tasks, "Copying files:"));
+        } else if (migrationType == MigrationType.LINK) {
+            errors.addAll(placeOrCopy(tasks, copyEngine, "Linking files:", BooksMover::link));
+        } else if (migrationType == MigrationType.CLONE) {
+            errors.addAll(placeOrCopy(tasks, copyEngine, "Cloning files:", task -> Reflink.clone(task.source(), task.target())));
+        } else {
+            errors.addAll(moveFiles(tasks, copyEngine));
+        }
+
+        // Sidecar files follow only archives that reached new place. They are rewritten in place, so they are copied
+        // instead of linking or cloning and never share data with original ones
+        List<CopyTask> sidecarTasks = createSidecarTasks(tasks);
+        if (!sidecarTasks.isEmpty()) {
+            errors.addAll(migrationType == MigrationType.MOVE
+                    ? moveFiles(sidecarTasks, copyEngine)
+                    : copyEngine.copy(sidecarTasks, "Copying sidecar files:"));
+        }
+
+        if (!errors.isEmpty()) {
+            deleteEmptyDirectories(tasks, outputDir, directoryTracker);
+        }
+        return errors;
+    }
+
+    /**
+     * Move every archive into planned new place. Archives are moved with {@link Files#move(Path, Path, CopyOption...)}
+     * on the same device and with verification by {@link CopyEngine} between devices
+     *
+     * @param tasks      {@link List} of planned {@link CopyTask}
+     * @param copyEngine {@link CopyEngine} that moves files with verification between devices
      * @return {@link List} of {@link String} errors
      */
-    public static List<String> move(File workingDir, File outputDir, MigrationType migrationType) {
-        List<FileMetadata> fileMetadataList = MetadataParser.parse(workingDir);
-        ProgressBar progressBar = ProgressBarBuilder.create(migrationType == MigrationType.MOVE ? "Moving files:" : "Copying files:", fileMetadataList.size());
+    private static List<String> moveFiles(List<CopyTask> tasks, CopyEngine copyEngine) {
+        ProgressBar progressBar = ProgressBarBuilder.create("Moving files:", tasks.size());
 
         List<String> errors = new ArrayList<>();
-        for (FileMetadata fileMetadata : fileMetadataList) {
+        List<CopyTask> crossDeviceTasks = new ArrayList<>();
+        for (CopyTask task : tasks) {
             progressBar.step();
-            String error = moveOrCopyFile(fileMetadata, createNewFolder(outputDir, fileMetadata), migrationType);
+
+            // Files.move silently turns into copy and delete between devices, so such files are moved with verification
+            if (!FileUtils.isSameDevice(task.source(), task.target().getParent())) {
+                crossDeviceTasks.add(task);
+                continue;
+            }
+
+            String error = moveFile(task);
             if (StringUtils.isNotEmpty(error)) {
                 errors.add(error);
             }
         }
         progressBar.close();
+
+        if (!crossDeviceTasks.isEmpty()) {
+            ChecksumLog checksumLog = new ChecksumLog();
+            errors.addAll(copyEngine.move(crossDeviceTasks, "Moving files between devices:", checksumLog));
+            if (!checksumLog.isEmpty()) {
+                checksumLog.save(CHECKSUMS_FILE);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Delete directories that were created for archives which weren't placed into new place because of errors,
+     * if such directories stayed empty
+     *
+     * @param tasks            {@link List} of planned {@link CopyTask}
+     * @param outputDir        output {@link File} dir where result is stored. Never deleted
+     * @param directoryTracker {@link DirectoryTracker} that created directories for tasks
+     */
+    private static void deleteEmptyDirectories(List<CopyTask> tasks, File outputDir, DirectoryTracker directoryTracker) {
+        tasks.stream()
+                .map(CopyTask::target)
+                .filter(Files::notExists)
+                .map(Path::getParent)
+                .forEach(directoryTracker::vacated);
+        directoryTracker.deleteEmptyDirectories(outputDir.toPath());
+    }
+
+    /**
+     * Place every archive into planned new place with given {@link FilePlacer}, e.g. by hard linking or cloning.
+     * Archives that can't be placed that way, e.g. because output dir is on another filesystem, are copied with {@link CopyEngine}
+     *
+     * @param tasks      {@link List} of planned {@link CopyTask}
+     * @param copyEngine {@link CopyEngine} that copies files which can't be placed
+     * @param message    message for progress indicating
+     * @param placer     {@link FilePlacer} that places archive into new place
+     * @return {@link List} of {@link String} errors
+     */
+    private static List<String> placeOrCopy(List<CopyTask> tasks, CopyEngine copyEngine, String message, FilePlacer placer) {
+        ProgressBar progressBar = ProgressBarBuilder.create(message, tasks.size());
+
+        List<String> errors = new ArrayList<>();
+        List<CopyTask> notPlacedTasks = new ArrayList<>();
+        for (CopyTask task : tasks) {
+            progressBar.step();
+            try {
+                if (!placer.place(task)) {
+                    notPlacedTasks.add(task);
+                }
+            } catch (FileAlreadyExistsException e) {
+                errors.add("Duplicate file: [" + task.source() + "]");
+            } catch (IOException | UnsupportedOperationException e) {
+                notPlacedTasks.add(task);
+            }
+        }
+        progressBar.close();
+
+        if (!notPlacedTasks.isEmpty()) {
+            errors.addAll(copyEngine.copy(notPlacedTasks, "Copying files:"));
+        }
         return errors;
     }
 
+    /**
+     * Create hard link to original archive in new place
+     * <p>
+     * Linked archive shares data with original one. It's safe for metadata writing because {@link ZipIterator#saveIntoArchive(String, Map)}
+     * writes archive into new file and replaces link with it, so original archive is never changed through the link
+     *
+     * @param task {@link CopyTask} with original archive and new place
+     * @return always true
+     * @throws IOException if link can't be created
+     */
+    private static boolean link(CopyTask task) throws IOException {
+        IoThrottle.acquireOperation();
+        Files.createLink(task.target(), task.source());
+        return true;
+    }
+
+    /**
+     * Plan new place for every archive in path order with {@link NameRegistry}, so collisions are always resolved the
+     * same way. Archives with {@link App#ZIP_EXTENSION} extension get {@link App#CBZ_EXTENSION} extension in new place,
+     * original archives are never renamed. Non-ksk rip archives are deleted and skipped
+     * <p>
+     * Directories are created only for archives which new place was reserved, so skipped archives leave no empty directories
+     *
+     * @param fileMetadataList {@link List} of {@link FileMetadata} for all archives in input dir
+     * @param outputDir        output {@link File} dir where result will be stored
+     * @param directoryTracker {@link DirectoryTracker} that creates every new directory only once
+     * @param collisions       {@link List} into which {@link NameCollision} will be recorded
+     * @return {@link List} of {@link CopyTask}
+     */
+    private static List<CopyTask> createCopyTasks(List<FileMetadata> fileMetadataList, File outputDir, DirectoryTracker directoryTracker,
+                                                  List<NameCollision> collisions) {
+        NameRegistry nameRegistry = new NameRegistry(collisions, true);
+        if (outputDir.isDirectory()) {
+            nameRegistry.occupy(FileUtils.walkComicArchiveFiles(outputDir));
+        }
+
+        return fileMetadataList.stream()
+                .sorted(Comparator.comparing(FileMetadata::getFile))
+                .filter(fileMetadata -> !deleteOtherFiles(fileMetadata))
+                .map(fileMetadata -> {
+                    Path source = fileMetadata.getFile().toPath();
+                    String fileName = FileUtils.getNormalizedComicFileName(fileMetadata.getFile());
+                    Path target = new File(getNewFolder(outputDir, fileMetadata), fileName).toPath();
+                    return new CopyTask(source, nameRegistry.reserve(source, List.of(target)));
+                })
+                .filter(task -> task.target() != null)
+                .peek(task -> directoryTracker.createDirectories(task.target().getParent()))
+                .toList();
+    }
+
+    /**
+     * Create companion {@link CopyTask} for sidecar metadata file of every archive that was placed into new place and
+     * has sidecar file, see {@link BookInfo#getSidecarFile(File)}. Sidecar file is named after new archive name
+     *
+     * @param tasks {@link List} of {@link CopyTask} for archives
+     * @return {@link List} of {@link CopyTask} for sidecar files
+     */
+    private static List<CopyTask> createSidecarTasks(List<CopyTask> tasks) {
+        return tasks.stream()
+                .filter(task -> Files.exists(task.target()) && BookInfo.getSidecarFile(task.source().toFile()).isFile())
+                .map(task -> new CopyTask(
+                        BookInfo.getSidecarFile(task.source().toFile()).toPath(),
+                        BookInfo.getSidecarFile(task.target().toFile()).toPath()
+                ))
+                .toList();
+    }
+
     /**
      * Generate new directory name from {@link FileMetadata} parsed from archive {@link File}. By default, it tries to
      * create new name depending on {@link FileMetadata#getMagazine()} field from metadata, then from {@link FileMetadata#getPublisher()}
@@ -60,7 +252,7 @@ public class BooksMover {
      * @param fileMetadata {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata
      * @return {@link File} that point to a new directory
      */
-    private static File createNewFolder(File outputDir, FileMetadata fileMetadata) {
+    private static File getNewFolder(File outputDir, FileMetadata fileMetadata) {
         File newDir;
         String magazine = fileMetadata.getMagazine();
         if (StringUtils.isNotEmpty(magazine)) {
@@ -76,7 +268,6 @@ public class BooksMover {
         } else {
             newDir = createFileForPublisher(outputDir, App.UNKNOWN);
         }
-        newDir.mkdirs();
         return newDir;
     }
 
@@ -92,31 +283,20 @@ public class BooksMover {
     }
 
     /**
-     * {@link Files#move(Path, Path, CopyOption...)} or {@link Files#copy(Path, OutputStream)} file from old destination into new place
-     * <p>
-     * All other non-ksk rip archives will be deleted automatically. List of name rules are predefined
+     * {@link Files#move(Path, Path, CopyOption...)} file from old destination into new place on the same device
      *
-     * @param fileMetadata  {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata
-     * @param newDir        destination {@link File} directory
-     * @param migrationType if {@link MigrationType#MOVE}, files from input dir will be moved into output, otherwise copied
+     * @param task {@link CopyTask} with original archive and new place
+     * @return {@link String} error or null if moving was successful
      */
-    private static String moveOrCopyFile(FileMetadata fileMetadata, File newDir, MigrationType migrationType) {
-        File newFile = new File(newDir, fileMetadata.getFile().getName());
+    private static String moveFile(CopyTask task) {
         try {
-            if (deleteOtherFiles(fileMetadata)) {
-                return null;
-            }
-
-            if (migrationType == MigrationType.MOVE) {
-                Files.move(fileMetadata.getFile().toPath(), newFile.toPath());
-            } else {
-                Files.copy(fileMetadata.getFile().toPath(), newFile.toPath());
-            }
+            IoThrottle.acquireOperation();
+            Files.move(task.source(), task.target());
             return null;
         } catch (IOException e) {
             return (e instanceof FileAlreadyExistsException)
-                    ? "Duplicate file: [" + fileMetadata.getFile() + "]"
-                    : "Unable to move or copy [" + fileMetadata.getFile() + "] to [" + newFile;
+                    ? "Duplicate file: [" + task.source() + "]"
+                    : "Unable to move [" + task.source() + "] to [" + task.target() + "]";
         }
     }
 
@@ -138,4 +318,20 @@ public class BooksMover {
         }
         return false;
     }
+
+    /**
+     * Strategy of placing archive into new place without copying its data
+     */
+    @FunctionalInterface
+    private interface FilePlacer {
+
+        /**
+         * Place archive into new place
+         *
+         * @param task {@link CopyTask} with original archive and new place
+         * @return true if archive was placed, false if it must be copied instead
+         * @throws IOException if an I/O error has occurred
+         */
+        boolean place(CopyTask task) throws IOException;
+    }
 }
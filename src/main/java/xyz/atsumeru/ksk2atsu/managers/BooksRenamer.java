@@ -5,6 +5,11 @@ import xyz.atsumeru.ksk2atsu.App;
 import xyz.atsumeru.ksk2atsu.database.Database;
 import xyz.atsumeru.ksk2atsu.database.enums.BooksReSortingType;
 import xyz.atsumeru.ksk2atsu.database.models.Book;
+import xyz.atsumeru.ksk2atsu.io.CopyTask;
+import xyz.atsumeru.ksk2atsu.io.DirectoryTracker;
+import xyz.atsumeru.ksk2atsu.io.IoThrottle;
+import xyz.atsumeru.ksk2atsu.io.NameCollision;
+import xyz.atsumeru.ksk2atsu.io.NameRegistry;
 import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
 import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
 import xyz.atsumeru.ksk2atsu.metadata.YAMLContent;
@@ -12,38 +17,77 @@ import xyz.atsumeru.ksk2atsu.utils.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class BooksRenamer {
+    private static final String HIGH_QUALITY = "x3200";
+    private static final List<String> QUALITIES = List.of(HIGH_QUALITY, "x3199", "x3100");
 
     /**
      * Rename all archives in given input {@link File} directory creating new names from metadata and move Books from
      * {@link App#DOUJINS_FOLDER} into {@link App#BOOKS_FOLDER} if metadata for corresponding archive is in {@link Book} {@link Database} table
+     * <p>
+     * All new names are planned with {@link NameRegistry} before any file is moved. Archives are planned in path order,
+     * so name collisions are always resolved the same way: colliding archive gets its exact quality suffix and then numeric suffix
      *
-     * @param outputDir     output {@link File} dir where sorted archives is stored
-     * @param reSortingType if {@link BooksReSortingType#BY_AUTHOR}, files in output dir will be resorted by Author, otherwise by Publisher
+     * @param outputDir        output {@link File} dir where sorted archives is stored
+     * @param reSortingType    if {@link BooksReSortingType#BY_AUTHOR}, files in output dir will be resorted by Author, otherwise by Publisher
+     * @param collisions       {@link List} into which resolved {@link NameCollision} will be recorded
+     * @param renamedFiles     {@link List} into which {@link FileMetadata} of all archives in their final place will be recorded
+     * @param keepBookInfoJson if true, raw book_info.json payload is kept in recorded {@link FileMetadata}
      * @return {@link List} of {@link String} errors
      */
-    public static List<String> rename(File outputDir, BooksReSortingType reSortingType) {
-        List<FileMetadata> filesMetadata = MetadataParser.parse(outputDir);
-        ProgressBar progressBar = ProgressBarBuilder.create("Renaming files:", filesMetadata.size());
-
-        List<String> errors = filesMetadata.stream()
-                .peek(fileMetadata -> progressBar.step())
-                .filter(fileMetadata -> !renameFile(fileMetadata, reSortingType))
-                .map(FileMetadata::getFile)
-                .map(file -> "Unable to rename file: " + file)
-                .filter(StringUtils::isNotEmpty)
-                .collect(Collectors.toList());
+    public static List<String> rename(File outputDir, BooksReSortingType reSortingType, List<NameCollision> collisions, List<FileMetadata> renamedFiles,
+                                      boolean keepBookInfoJson) {
+        List<FileMetadata> filesMetadata = MetadataParser.parse(outputDir, keepBookInfoJson)
+                .stream()
+                .sorted(Comparator.comparing(FileMetadata::getFile))
+                .toList();
+
+        NameRegistry nameRegistry = new NameRegistry(collisions, false);
+        nameRegistry.occupy(FileUtils.walkComicArchiveFiles(outputDir));
+
+        List<CopyTask> tasks = filesMetadata.stream()
+                .map(fileMetadata -> {
+                    Path source = fileMetadata.getFile().toPath();
+                    return new CopyTask(source, nameRegistry.reserve(source, createNewPaths(fileMetadata, reSortingType)));
+                })
+                .toList();
+
+        ProgressBar progressBar = ProgressBarBuilder.create("Renaming files:", tasks.size());
+
+        DirectoryTracker directoryTracker = new DirectoryTracker();
+        List<String> errors = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            CopyTask task = tasks.get(i);
+            FileMetadata fileMetadata = filesMetadata.get(i);
+            progressBar.step();
+
+            // Archive stays in old place if it can't be renamed
+            boolean isRenamed = renameFile(task, directoryTracker);
+            if (!isRenamed) {
+                errors.add("Unable to rename file: " + task.source());
+            }
+
+            renamedFiles.add(new FileMetadata(
+                    (isRenamed ? task.target() : task.source()).toFile(),
+                    fileMetadata.getYamlContent(),
+                    fileMetadata.getBookInfo(),
+                    fileMetadata.getPagesCount(),
+                    fileMetadata.getFingerprint(),
+                    fileMetadata.getBookInfoJson()
+            ));
+        }
 
-        cleanOutputFolder(outputDir);
+        // Remove directories emptied by renaming
+        directoryTracker.deleteEmptyDirectories(outputDir.toPath());
 
         progressBar.close();
 
@@ -51,102 +95,120 @@ public class BooksRenamer {
     }
 
     /**
-     * Rename archive {@link File} using metadata info from {@link FileMetadata} by formula
+     * Create new {@link Path} candidates for archive using metadata info from {@link FileMetadata} by formula
      * <p>({@link BookInfo#getEvent()}) [{@link BookInfo#getAuthors()}] {@link BookInfo#getTitle()} (quality).cbz</p>
+     * All high quality variants are named <b>(x3200)</b>. Second candidate uses exact quality from original file name,
+     * so different variants of the same book may coexist
      *
      * @param fileMetadata  {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata
      * @param reSortingType if {@link BooksReSortingType#BY_AUTHOR}, files in output dir will be resorted by Author, otherwise by Publisher
-     * @return true if rename/moving was successful
+     * @return {@link List} of new {@link Path} candidates in order of preference
      */
-    private static boolean renameFile(FileMetadata fileMetadata, BooksReSortingType reSortingType) {
-        try {
-            File parentDir = fileMetadata.getFile().getParentFile();
-            if (reSortingType == BooksReSortingType.BY_AUTHOR) {
-                parentDir = new File(
-                        parentDir.getParentFile(),
-                        Optional.ofNullable(fileMetadata.getBookInfo())
-                                .map(BookInfo::getAuthors)
+    private static List<Path> createNewPaths(FileMetadata fileMetadata, BooksReSortingType reSortingType) {
+        File parentDir = fileMetadata.getFile().getParentFile();
+        if (reSortingType == BooksReSortingType.BY_AUTHOR) {
+            parentDir = new File(
+                    parentDir.getParentFile(),
+                    Optional.ofNullable(fileMetadata.getBookInfo())
+                            .map(BookInfo::getAuthors)
+                            .filter(ArrayUtils::isNotEmpty)
+                            .map(list -> list.get(0))
+                            .map(ComicUtils::getArtistReplacedDeniedSymbols)
+                            .orElse(App.UNKNOWN)
+            );
+        }
+
+        // It's book. Change directory from Doujins to Books
+        boolean isBook = Optional.ofNullable(fileMetadata.getBookInfo())
+                .map(BookInfo::getParodies)
+                .filter(ArrayUtils::isNotEmpty)
+                .map(parodies -> parodies.stream().anyMatch(parody -> StringUtils.equalsIgnoreCase(parody, App.ORIGINAL_WORK)))
+                .orElse(false);
+
+        if (isBook) {
+            parentDir = new File(parentDir.toString().replace(App.DOUJINS_FOLDER, App.BOOKS_FOLDER));
+        }
+
+        // Get optional metadata values from book_info and file name (event and quality)
+        String event = Optional.ofNullable(fileMetadata.getBookInfo())
+                .map(BookInfo::getEvent)
+                .filter(StringUtils::isNotEmpty)
+                .map(value -> String.format("(%s) ", value))
+                .orElse("");
+
+        String fileName = fileMetadata.getFile().getName();
+        String exactQuality = QUALITIES.stream()
+                .filter(fileName::contains)
+                .findFirst()
+                .orElse(null);
+
+        // Create new file name using scheme: (event) [author] book name.cbz
+        String author = Optional.ofNullable(fileMetadata.getBookInfo())
+                .map(BookInfo::getAuthors)
+                .filter(ArrayUtils::isNotEmpty)
+                .map(list -> list.get(0))
+                .orElseGet(
+                        () -> Optional.ofNullable(fileMetadata.getYamlContent())
+                                .map(YAMLContent::getArtist)
                                 .filter(ArrayUtils::isNotEmpty)
                                 .map(list -> list.get(0))
-                                .map(ComicUtils::getArtistReplacedDeniedSymbols)
                                 .orElse(App.UNKNOWN)
                 );
-            }
 
-            // It's book. Change directory from Doujins to Books
-            boolean isBook = Optional.ofNullable(fileMetadata.getBookInfo())
-                    .map(BookInfo::getParodies)
-                    .filter(ArrayUtils::isNotEmpty)
-                    .map(parodies -> parodies.stream().anyMatch(parody -> StringUtils.equalsIgnoreCase(parody, App.ORIGINAL_WORK)))
-                    .orElse(false);
+        String title = Optional.ofNullable(fileMetadata.getBookInfo())
+                .map(BookInfo::getTitle)
+                .filter(StringUtils::isNotEmpty)
+                .orElseGet(
+                        () -> Optional.ofNullable(fileMetadata.getYamlContent())
+                                .map(YAMLContent::getTitle)
+                                .filter(StringUtils::isNotEmpty)
+                                .orElseGet(() -> fileName.replace(".cbz", ""))
+                );
 
-            if (isBook) {
-                parentDir = new File(parentDir.toString().replace(App.DOUJINS_FOLDER, App.BOOKS_FOLDER));
-            }
+        File dir = parentDir;
+        return Stream.of(exactQuality != null ? HIGH_QUALITY : null, exactQuality)
+                .map(quality -> quality != null ? String.format(" (%s)", quality) : "")
+                .distinct()
+                .map(quality -> new File(dir, ComicUtils.getTitleReplacedDeniedSymbols(String.format("%s[%s] %s%s.cbz", event, author, title, quality))).toPath())
+                .toList();
+    }
 
-            // Get optional metadata values from book_info and file name (event and quality)
-            String event = Optional.ofNullable(fileMetadata.getBookInfo())
-                    .map(BookInfo::getEvent)
-                    .filter(StringUtils::isNotEmpty)
-                    .map(value -> String.format("(%s) ", value))
-                    .orElse("");
-
-            String fileName = fileMetadata.getFile().getName();
-            String quality = fileName.contains("x3200") || fileName.contains("x3199") || fileName.contains("x3100") ? " (x3200)" : "";
-
-            // Create new file name using scheme: (event) [author] book name.cbz
-            String author = Optional.ofNullable(fileMetadata.getBookInfo())
-                    .map(BookInfo::getAuthors)
-                    .filter(ArrayUtils::isNotEmpty)
-                    .map(list -> list.get(0))
-                    .orElseGet(
-                            () -> Optional.ofNullable(fileMetadata.getYamlContent())
-                                    .map(YAMLContent::getArtist)
-                                    .filter(ArrayUtils::isNotEmpty)
-                                    .map(list -> list.get(0))
-                                    .orElse(App.UNKNOWN)
-                    );
-
-            String title = Optional.ofNullable(fileMetadata.getBookInfo())
-                    .map(BookInfo::getTitle)
-                    .filter(StringUtils::isNotEmpty)
-                    .orElseGet(
-                            () -> Optional.ofNullable(fileMetadata.getYamlContent())
-                                    .map(YAMLContent::getTitle)
-                                    .filter(StringUtils::isNotEmpty)
-                                    .orElseGet(() -> fileName.replace(".cbz", ""))
-                    );
-
-            File newFile = new File(parentDir, ComicUtils.getTitleReplacedDeniedSymbols(String.format("%s[%s] %s%s.cbz", event, author, title, quality)));
+    /**
+     * Move archive and its sidecar metadata file into new place planned with {@link NameRegistry}
+     *
+     * @param task             {@link CopyTask} with original archive and new place
+     * @param directoryTracker {@link DirectoryTracker} that creates new dirs and records vacated ones
+     * @return true if rename/moving was successful
+     */
+    private static boolean renameFile(CopyTask task, DirectoryTracker directoryTracker) {
+        if (task.source().equals(task.target())) {
+            return true;
+        }
 
+        try {
             // Create new potential dirs
-            newFile.getParentFile().mkdirs();
+            if (!directoryTracker.createDirectories(task.target().getParent())) {
+                return false;
+            }
 
             // Move file into new place with new name
-            Files.move(fileMetadata.getFile().toPath(), newFile.toPath());
+            IoThrottle.acquireOperation();
+            Files.move(task.source(), task.target());
+
+            // Move sidecar metadata file together with archive
+            Path sidecarFile = BookInfo.getSidecarFile(task.source().toFile()).toPath();
+            if (Files.isRegularFile(sidecarFile)) {
+                IoThrottle.acquireOperation();
+                Files.move(sidecarFile, BookInfo.getSidecarFile(task.target().toFile()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            directoryTracker.vacated(task.source().getParent());
             return true;
-        } catch (Exception e) {
+        } catch (IOException e) {
             if (App.IS_DEBUG) {
                 e.printStackTrace();
             }
-            return e instanceof FileAlreadyExistsException;
-        }
-    }
-
-    /**
-     * Cleans output {@link File} directory by removing empty directories
-     *
-     * @param outputDir output {@link File} dir where sorted archives is stored
-     */
-    private static void cleanOutputFolder(File outputDir) {
-        try (Stream<Path> stream = Files.walk(outputDir.toPath())) {
-            stream.sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .filter(File::isDirectory)
-                    .filter(FileUtils::isDirectoryEmpty)
-                    .forEach(File::delete);
-        } catch (IOException e) {
-            System.err.println("Unable to delete directory!");
+            return false;
         }
     }
 }
@@ -1,19 +1,16 @@
 package xyz.atsumeru.ksk2atsu.managers;
 
 import me.tongfei.progressbar.ProgressBar;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import org.apache.commons.io.IOUtils;
 import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.network.CoverSource;
 import xyz.atsumeru.ksk2atsu.utils.ComicUtils;
 import xyz.atsumeru.ksk2atsu.utils.FileUtils;
 import xyz.atsumeru.ksk2atsu.utils.ProgressBarBuilder;
+import xyz.atsumeru.ksk2atsu.utils.SingleFlight;
 import xyz.atsumeru.ksk2atsu.utils.StringUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.net.HttpURLConnection;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
@@ -42,15 +39,24 @@ public class CoversDownloader {
         put("comic-kairakuten-2016-01", "https://i.imgur.com/21e3S9f.jpg");
     }};
 
+    // Magazine url -> cover url. Different folders may resolve into the same magazine page
+    private static final SingleFlight<String, String> PAGE_REQUESTS = new SingleFlight<>();
+    // Cover url -> first downloaded cover file. Different magazine pages may share the same cover
+    private static final SingleFlight<String, Path> IMAGE_REQUESTS = new SingleFlight<>();
+
     private static ProgressBar progressBar;
+    private static CoverSource coverSource;
 
     /**
      * Download covers for Comic Magazines in provided {@link File} directory
      *
-     * @param inputDir input {@link File} directory
+     * @param inputDir    input {@link File} directory
+     * @param coverSource {@link CoverSource} from which magazine pages and covers will be fetched
      * @return {@link List} of {@link String} download errors
      */
-    public static List<String> download(File inputDir) {
+    public static List<String> download(File inputDir, CoverSource coverSource) {
+        CoversDownloader.coverSource = coverSource;
+
         // Count Series in directory
         progressBar = ProgressBarBuilder.create(
                 "Downloading covers:",
@@ -74,11 +80,17 @@ public class CoversDownloader {
 
         progressBar.close();
 
+        PAGE_REQUESTS.clear();
+        IMAGE_REQUESTS.clear();
+
         return list;
     }
 
     /**
-     * Check if cover already exists, create magazine url, parser cover image and download it
+     * Check if cover already exists, create magazine url, parser cover image and download it. Identical page and
+     * image urls are requested only once, and already downloaded cover is copied into every other folder that needs it.
+     * Failed requests are retried by next folder.
+     * If cover can't be downloaded, it is extracted from first page of Issue archives with {@link CoversExtractor}
      *
      * @param dir input {@link File} directory
      * @return true if cover already downloaded or download was successful
@@ -87,8 +99,51 @@ public class CoversDownloader {
         progressBar.step();
         File coverFile = new File(dir.toFile(), "cover.jpg");
 
-        // Check if cover already exists or parser and download it
-        return coverFile.exists() || downloadImage(parseImageUrl(createMagazineUrl(dir)), coverFile);
+        // Check if cover already exists
+        if (coverFile.exists()) {
+            return true;
+        }
+
+        return downloadCover(dir, coverFile) || CoversExtractor.extractForIssue(dir.toFile(), coverFile);
+    }
+
+    /**
+     * Create magazine url, parser cover image and download it
+     *
+     * @param dir       input {@link File} directory
+     * @param coverFile {@link File} in which cover will be saved
+     * @return true if download was successful
+     */
+    private static boolean downloadCover(Path dir, File coverFile) {
+        // Parse cover url
+        String magazineUrl = createMagazineUrl(dir);
+        String imageUrl = PAGE_REQUESTS.execute(magazineUrl, () -> parseImageUrl(magazineUrl));
+        if (!StringUtils.isNotEmpty(imageUrl)) {
+            return false;
+        }
+
+        // Download cover or reuse the one downloaded for another folder
+        Path downloadedFile = IMAGE_REQUESTS.execute(imageUrl, () -> downloadImage(imageUrl, coverFile) ? coverFile.toPath() : null);
+        return downloadedFile != null && (downloadedFile.equals(coverFile.toPath()) || copyCover(downloadedFile, coverFile));
+    }
+
+    /**
+     * Copy already downloaded cover into given {@link File}
+     *
+     * @param downloadedFile {@link Path} of already downloaded cover
+     * @param outputFile     {@link File} in which cover will be saved
+     * @return true if copying success
+     */
+    private static boolean copyCover(Path downloadedFile, File outputFile) {
+        try {
+            FileUtils.copyAtomically(downloadedFile, outputFile.toPath());
+            return true;
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            return false;
+        }
     }
 
     /**
@@ -129,14 +184,14 @@ public class CoversDownloader {
             return predefinedImageUrl;
         }
 
-        // Request magazine url
-        Request request = new Request.Builder()
-                .url(magazineUrl)
-                .build();
-
         // Get HTML and parse cover url
-        try (Response response = new OkHttpClient().newCall(request).execute()) {
-            StringBuilder html = new StringBuilder(response.body().string());
+        try {
+            String page = coverSource.fetchPage(magazineUrl);
+            if (page == null) {
+                return null;
+            }
+
+            StringBuilder html = new StringBuilder(page);
             int indexStart = html.indexOf(COVER_TAG) + COVER_TAG.length();
             int indexEnd = html.indexOf("\"", indexStart);
 
@@ -163,27 +218,7 @@ public class CoversDownloader {
         }
 
         try {
-            // Request image url
-            Request request = new Request.Builder()
-                    .url(imageUrl)
-                    .build();
-
-            // Download image if response code is HTTP OK
-            try (Response response = new OkHttpClient().newCall(request).execute()) {
-                if (response.code() == HttpURLConnection.HTTP_OK) {
-                    // Open an output stream to save into file
-                    FileOutputStream outputStream = new FileOutputStream(outputFile);
-                    // Save stream into file
-                    IOUtils.write(response.body().bytes(), outputStream);
-                    // Close stream
-                    outputStream.close();
-                    return true;
-                }
-            } catch (Exception e) {
-                if (App.IS_DEBUG) {
-                    e.printStackTrace();
-                }
-            }
+            return coverSource.fetchImage(imageUrl, outputFile);
         } catch (Exception e) {
             if (App.IS_DEBUG) {
                 e.printStackTrace();
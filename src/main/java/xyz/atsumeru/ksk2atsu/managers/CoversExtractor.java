@@ -0,0 +1,164 @@
+package xyz.atsumeru.ksk2atsu.managers;
+
+import me.tongfei.progressbar.ProgressBar;
+import net.greypanther.natsort.CaseInsensitiveSimpleNaturalComparator;
+import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.io.FileRecord;
+import xyz.atsumeru.ksk2atsu.io.StorageProfile;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.utils.ProgressBarBuilder;
+import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extracts covers from first page of archives without network requests. Pages are decoded with subsampling, so
+ * full-resolution image is never held in memory
+ */
+public class CoversExtractor {
+    private static final Comparator<String> natSortComparator = CaseInsensitiveSimpleNaturalComparator.getInstance();
+
+    private static final String COVER_EXTENSION = "jpg";
+    private static final int COVER_HEIGHT = 800;
+
+    static {
+        // Keep ImageIO stream cache in memory instead of temporary files
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * Extract covers for all Doujins and Books archives in output {@link File} directory. Cover is saved next to
+     * archive with the same name and {@link #COVER_EXTENSION} extension. Archives are read sequentially in inode order
+     * on spinning disks and in parallel otherwise, see {@link StorageProfile}
+     *
+     * @param outputDir output {@link File} dir where sorted archives is stored
+     * @return {@link List} of {@link String} errors
+     */
+    public static List<String> extractForBooks(File outputDir) {
+        List<FileRecord> records = Stream.of(App.DOUJINS_FOLDER, App.BOOKS_FOLDER)
+                .map(folder -> new File(outputDir, folder))
+                .filter(File::isDirectory)
+                .map(FileUtils::walkComicArchiveFiles)
+                .flatMap(List::stream)
+                .toList();
+
+        ProgressBar progressBar = ProgressBarBuilder.create("Extracting covers:", records.size());
+
+        List<String> errors = StorageProfile.stream(outputDir.toPath(), records)
+                .peek(record -> progressBar.step())
+                .map(FileRecord::toFile)
+                .filter(file -> {
+                    File coverFile = new File(file.getParentFile(), FileUtils.getFileNameWithoutExtension(file) + "." + COVER_EXTENSION);
+                    return !coverFile.exists() && !extract(file, coverFile);
+                })
+                .map(file -> "Unable to extract cover: " + file)
+                .collect(Collectors.toList());
+
+        progressBar.close();
+
+        return errors;
+    }
+
+    /**
+     * Extract cover for Comic Magazine Issue from first page of first archive in given {@link File} directory
+     *
+     * @param issueDir  Comic Magazine Issue {@link File} directory
+     * @param coverFile {@link File} in which cover will be saved
+     * @return true if cover was extracted
+     */
+    public static boolean extractForIssue(File issueDir, File coverFile) {
+        return FileUtils.listComicArchiveFiles(issueDir)
+                .stream()
+                .min((file1, file2) -> natSortComparator.compare(file1.getName(), file2.getName()))
+                .map(archive -> extract(archive, coverFile))
+                .orElse(false);
+    }
+
+    /**
+     * Find first image in natural order in archive {@link File}, downscale it and save into cover {@link File}
+     *
+     * @param archive   archive {@link File}
+     * @param coverFile {@link File} in which cover will be saved
+     * @return true if cover was extracted
+     */
+    private static boolean extract(File archive, File coverFile) {
+        try (ZipIterator zipIterator = ZipIterator.open(archive)) {
+            while (zipIterator.next()) {
+                if (FileUtils.isImageFile(zipIterator.getEntryName())) {
+                    try (InputStream inputStream = zipIterator.getEntryInputStream()) {
+                        return writeThumbnail(inputStream, coverFile);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decode image from {@link InputStream} with subsampling so its height is close to {@link #COVER_HEIGHT} and
+     * atomically save it as JPEG into given {@link File}
+     *
+     * @param inputStream image {@link InputStream}
+     * @param coverFile   {@link File} in which cover will be saved
+     * @return true if image format is supported and cover was saved
+     * @throws IOException if an I/O error has occurred
+     */
+    private static boolean writeThumbnail(InputStream inputStream, File coverFile) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                return false;
+            }
+
+            ImageReader reader = readers.next();
+            BufferedImage image;
+            try {
+                reader.setInput(imageInputStream, true, true);
+
+                // Read only every n-th pixel of every n-th row
+                int subsampling = Math.max(1, reader.getHeight(0) / COVER_HEIGHT);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+
+            // JPEG doesn't support transparency, so draw image on opaque canvas
+            BufferedImage cover = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = cover.createGraphics();
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+            graphics.dispose();
+
+            // Write into temporary file and publish it
+            Path tempFile = FileUtils.createTempFile(coverFile.toPath());
+            try {
+                if (!ImageIO.write(cover, COVER_EXTENSION, tempFile.toFile())) {
+                    return false;
+                }
+                FileUtils.moveAtomically(tempFile, coverFile.toPath());
+                return true;
+            } finally {
+                FileUtils.deleteQuietly(tempFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package xyz.atsumeru.ksk2atsu.managers;
+
+import me.tongfei.progressbar.ProgressBar;
+import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.database.enums.DuplicatesMode;
+import xyz.atsumeru.ksk2atsu.io.Duplicate;
+import xyz.atsumeru.ksk2atsu.io.IoThrottle;
+import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
+import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
+import xyz.atsumeru.ksk2atsu.metadata.ImageHeaderReader;
+import xyz.atsumeru.ksk2atsu.metadata.PageInfo;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.utils.ProgressBarBuilder;
+import xyz.atsumeru.ksk2atsu.utils.StringUtils;
+import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Finds duplicate archives in output dir. Archives with identical content are found by content fingerprint from central
+ * directory and confirmed by hash of actual content, so only colliding archives are fully read. Lower resolution
+ * variants of the same book (e.g. x3100 and x3200) are found by the same link and compared by first page dimensions
+ */
+public class DuplicatesFinder {
+
+    /**
+     * Find duplicate archives and report them or replace them with hard links to kept archive depending on
+     * {@link DuplicatesMode}. From every group of identical archives the first one in path order is kept, from every
+     * group of variants the one with the highest resolution. Archives with unreadable first page are excluded from
+     * variants comparison and variants are hard linked only if first pages of whole group were read. Hard links are
+     * created only for archives in the same directory, so Magazine Issue is never replaced with Doujin with different
+     * Serie metadata. Other duplicates are reported
+     *
+     * @param filesMetadata {@link List} of {@link FileMetadata} of archives in their final place. Linked archives get
+     *                      metadata of kept archive
+     * @param mode          {@link DuplicatesMode}
+     * @param duplicates    {@link List} into which found {@link Duplicate} will be recorded
+     * @return {@link List} of {@link String} errors
+     */
+    public static List<String> find(List<FileMetadata> filesMetadata, DuplicatesMode mode, List<Duplicate> duplicates) {
+        if (mode == DuplicatesMode.OFF) {
+            return List.of();
+        }
+
+        List<FileMetadata> sortedFiles = filesMetadata.stream()
+                .sorted(Comparator.comparing(FileMetadata::getFile))
+                .toList();
+
+        List<List<FileMetadata>> fingerprintGroups = groupBy(
+                sortedFiles.stream().filter(fileMetadata -> StringUtils.isNotEmpty(fileMetadata.getFingerprint())).toList(),
+                FileMetadata::getFingerprint
+        );
+
+        ProgressBar progressBar = ProgressBarBuilder.create("Finding duplicates:", fingerprintGroups.size());
+
+        List<String> errors = new ArrayList<>();
+        Set<File> duplicateFiles = new HashSet<>();
+
+        // Identical content. Equal fingerprints are confirmed by content hash
+        for (List<FileMetadata> group : fingerprintGroups) {
+            progressBar.step();
+
+            Map<String, List<FileMetadata>> filesByContentHash = new LinkedHashMap<>();
+            for (FileMetadata fileMetadata : group) {
+                String contentHash = readContentHash(fileMetadata.getFile());
+                if (contentHash != null) {
+                    filesByContentHash.computeIfAbsent(contentHash, hash -> new ArrayList<>()).add(fileMetadata);
+                } else {
+                    errors.add("Unable to read archive: " + fileMetadata.getFile());
+                }
+            }
+
+            for (List<FileMetadata> identicalFiles : filesByContentHash.values()) {
+                FileMetadata kept = identicalFiles.get(0);
+                identicalFiles.stream()
+                        .skip(1)
+                        .filter(fileMetadata -> !isSameFile(fileMetadata.getFile(), kept.getFile()))
+                        .forEach(fileMetadata -> processDuplicate(fileMetadata, kept, true, mode, duplicates, duplicateFiles, errors));
+            }
+        }
+
+        progressBar.close();
+
+        // Lower resolution variants of the same book
+        List<List<FileMetadata>> linkGroups = groupBy(
+                sortedFiles.stream()
+                        .filter(fileMetadata -> !duplicateFiles.contains(fileMetadata.getFile()))
+                        .filter(fileMetadata -> StringUtils.isNotEmpty(fileMetadata.getUrl()))
+                        .toList(),
+                fileMetadata -> fileMetadata.getUrl().toLowerCase()
+        );
+
+        for (List<FileMetadata> group : linkGroups) {
+            Map<File, Long> areas = group.stream()
+                    .collect(Collectors.toMap(FileMetadata::getFile, fileMetadata -> readFirstPageArea(fileMetadata.getFile())));
+
+            // Archives with unreadable first page can't be compared, so they are reported and never treated as variants
+            List<FileMetadata> readFiles = new ArrayList<>();
+            for (FileMetadata fileMetadata : group) {
+                if (areas.get(fileMetadata.getFile()) > 0) {
+                    readFiles.add(fileMetadata);
+                } else {
+                    errors.add("Unable to read first page, archive is not compared with its variants: " + fileMetadata.getFile());
+                }
+            }
+
+            if (readFiles.size() < 2) {
+                continue;
+            }
+
+            FileMetadata kept = readFiles.stream()
+                    .max(Comparator.<FileMetadata>comparingLong(fileMetadata -> areas.get(fileMetadata.getFile()))
+                            .thenComparingLong(fileMetadata -> fileMetadata.getFile().length()))
+                    .orElseThrow();
+
+            // Variants are not identical, so they are hard linked only if all archives of the group were compared
+            DuplicatesMode variantsMode = readFiles.size() == group.size() ? mode : DuplicatesMode.REPORT;
+            readFiles.stream()
+                    .filter(fileMetadata -> areas.get(fileMetadata.getFile()) < areas.get(kept.getFile()))
+                    .forEach(fileMetadata -> processDuplicate(fileMetadata, kept, false, variantsMode, duplicates, duplicateFiles, errors));
+        }
+
+        return errors;
+    }
+
+    /**
+     * Record {@link Duplicate} and replace duplicate archive with hard link to kept archive if {@link DuplicatesMode#LINK}
+     * is used and both archives are in the same directory
+     *
+     * @param duplicate      {@link FileMetadata} of duplicate archive
+     * @param kept           {@link FileMetadata} of kept archive
+     * @param isIdentical    true if archives have identical content
+     * @param mode           {@link DuplicatesMode}
+     * @param duplicates     {@link List} into which {@link Duplicate} will be recorded
+     * @param duplicateFiles {@link Set} of already processed duplicate {@link File}
+     * @param errors         {@link List} of {@link String} errors
+     */
+    private static void processDuplicate(FileMetadata duplicate, FileMetadata kept, boolean isIdentical, DuplicatesMode mode,
+                                         List<Duplicate> duplicates, Set<File> duplicateFiles, List<String> errors) {
+        Path duplicatePath = duplicate.getFile().toPath();
+        Path keptPath = kept.getFile().toPath();
+        long size = duplicate.getFile().length();
+
+        boolean isLinked = false;
+        if (mode == DuplicatesMode.LINK && Objects.equals(duplicatePath.getParent(), keptPath.getParent())) {
+            try {
+                linkDuplicate(duplicatePath, keptPath);
+                copyMetadata(kept, duplicate);
+                isLinked = true;
+            } catch (IOException e) {
+                if (App.IS_DEBUG) {
+                    e.printStackTrace();
+                }
+                errors.add("Unable to replace duplicate with hard link: " + duplicatePath);
+            }
+        }
+
+        duplicates.add(new Duplicate(duplicatePath, keptPath, isIdentical, isLinked, size));
+        duplicateFiles.add(duplicate.getFile());
+    }
+
+    /**
+     * Replace duplicate archive with hard link to kept archive. Link is created under temporary name and atomically
+     * moved over duplicate, so duplicate is either untouched or replaced
+     *
+     * @param duplicate {@link Path} of duplicate archive
+     * @param kept      {@link Path} of kept archive
+     * @throws IOException if an I/O error has occurred
+     */
+    private static void linkDuplicate(Path duplicate, Path kept) throws IOException {
+        Path tempFile = FileUtils.createTempFile(duplicate);
+        try {
+            Files.delete(tempFile);
+            IoThrottle.acquireOperation();
+            Files.createLink(tempFile, kept);
+            FileUtils.moveAtomically(tempFile, duplicate);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * Copy in-memory metadata of kept archive into {@link FileMetadata} of linked duplicate. {@link BookInfo} is kept
+     * if duplicate has sidecar metadata file, because sidecar file still describes it
+     *
+     * @param kept      {@link FileMetadata} of kept archive
+     * @param duplicate {@link FileMetadata} of linked duplicate archive
+     */
+    private static void copyMetadata(FileMetadata kept, FileMetadata duplicate) {
+        duplicate.setYamlContent(kept.getYamlContent());
+        duplicate.setPagesCount(kept.getPagesCount());
+        duplicate.setFingerprint(kept.getFingerprint());
+        if (!BookInfo.getSidecarFile(duplicate.getFile()).isFile()) {
+            duplicate.setBookInfo(kept.getBookInfo());
+        }
+    }
+
+    /**
+     * Group {@link FileMetadata} by key keeping original order and return only groups with more than one archive
+     *
+     * @param filesMetadata {@link List} of {@link FileMetadata}
+     * @param keyMapper     function that creates group key
+     * @return {@link List} of groups
+     */
+    private static List<List<FileMetadata>> groupBy(List<FileMetadata> filesMetadata, Function<FileMetadata, String> keyMapper) {
+        return filesMetadata.stream()
+                .collect(Collectors.groupingBy(keyMapper, LinkedHashMap::new, Collectors.toList()))
+                .values()
+                .stream()
+                .filter(group -> group.size() > 1)
+                .toList();
+    }
+
+    /**
+     * Create hash of actual archive content without generated metadata
+     *
+     * @param file archive {@link File}
+     * @return {@link String} hash or null if archive can't be read
+     */
+    private static String readContentHash(File file) {
+        try (ZipIterator zipIterator = ZipIterator.open(file)) {
+            return zipIterator.getContentHash(name -> !StringUtils.equalsIgnoreCase(name, App.BOOK_INFO_JSON));
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read area of first page in archive from its image header with {@link ImageHeaderReader}
+     *
+     * @param file archive {@link File}
+     * @return first page area in pixels or 0 if it can't be read or image format is unknown
+     */
+    private static long readFirstPageArea(File file) {
+        try (ZipIterator zipIterator = ZipIterator.open(file)) {
+            while (zipIterator.next()) {
+                String entryName = zipIterator.getEntryName();
+                if (FileUtils.isImageFile(entryName)) {
+                    try (InputStream inputStream = zipIterator.getEntryInputStream()) {
+                        PageInfo pageInfo = ImageHeaderReader.read(entryName, inputStream);
+                        return (long) pageInfo.width() * pageInfo.height();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Check if both {@link File} point to the same file, e.g. they are already hard linked
+     *
+     * @param file1 first {@link File}
+     * @param file2 second {@link File}
+     * @return true if it is the same file
+     */
+    private static boolean isSameFile(File file1, File file2) {
+        try {
+            return Files.isSameFile(file1.toPath(), file2.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package xyz.atsumeru.ksk2atsu.managers;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
+import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Exports library manifest in JSON Lines format. Every line describes single output archive, so Atsumeru may import
+ * whole library without opening archives again
+ */
+public class ManifestExporter {
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    /**
+     * Write manifest line for each archive from given {@link List} of {@link FileMetadata}. Hashes, pages count and
+     * metadata are taken from memory, metadata is written book_info.json payload kept while archives were parsed
+     * <p>
+     * Line format:
+     * <pre>{"path":"...","size":0,"mtime":0,"hash":"...","serie_hash":"...","pages_count":0,"metadata":{...}}</pre>
+     * Path is relative to output {@link File} dir, metadata contains full written {@link BookInfo} payload
+     *
+     * @param outputDir     output {@link File} dir where sorted archives is stored
+     * @param filesMetadata {@link List} of {@link FileMetadata} of archives in their final place with kept book_info.json payload
+     * @param manifestFile  {@link File} into which manifest will be written
+     * @return {@link List} of {@link String} errors
+     */
+    public static List<String> export(File outputDir, List<FileMetadata> filesMetadata, File manifestFile) {
+        Path outputPath = outputDir.toPath();
+        List<String> errors = new ArrayList<>();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), StandardCharsets.UTF_8))) {
+            for (FileMetadata fileMetadata : filesMetadata.stream().sorted(Comparator.comparing(FileMetadata::getFile)).toList()) {
+                writeLine(writer, outputPath, fileMetadata, errors);
+            }
+            return errors;
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            return List.of("Unable to write manifest: " + manifestFile);
+        }
+    }
+
+    /**
+     * Write single manifest line for archive
+     *
+     * @param writer       {@link Writer} of manifest file
+     * @param outputPath   output dir {@link Path} against which archive path is relativized
+     * @param fileMetadata {@link FileMetadata} of archive
+     * @param errors       {@link List} of {@link String} errors
+     * @throws IOException if an I/O error has occurred
+     */
+    private static void writeLine(Writer writer, Path outputPath, FileMetadata fileMetadata, List<String> errors) throws IOException {
+        File file = fileMetadata.getFile();
+        BookInfo bookInfo = fileMetadata.getBookInfo();
+
+        // JsonWriter permits only one top-level value, so new one is created for each line. It writes straight into
+        // buffered Writer, so it is neither flushed nor closed here
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setHtmlSafe(false);
+
+        jsonWriter.beginObject();
+        jsonWriter.name("path").value(outputPath.relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+        jsonWriter.name("size").value(file.length());
+        jsonWriter.name("mtime").value(file.lastModified());
+        jsonWriter.name("hash").value(bookInfo != null ? bookInfo.getHash() : null);
+        jsonWriter.name("serie_hash").value(bookInfo != null ? bookInfo.getSerieHash() : null);
+        jsonWriter.name("pages_count").value(fileMetadata.getPagesCount());
+
+        jsonWriter.name("metadata");
+        JsonElement metadata = parseWrittenMetadata(fileMetadata, errors);
+        if (metadata != null) {
+            GSON.toJson(metadata, jsonWriter);
+        } else {
+            // Archive without written metadata. Only its info.yaml link is known
+            jsonWriter.beginObject();
+            jsonWriter.name("link").value(fileMetadata.getYamlContent() != null ? fileMetadata.getYamlContent().getURL() : null);
+            jsonWriter.endObject();
+        }
+
+        jsonWriter.endObject();
+        writer.write('\n');
+    }
+
+    /**
+     * Parse book_info.json payload that was kept while archive was parsed, see {@link FileMetadata#getBookInfoJson()}
+     *
+     * @param fileMetadata {@link FileMetadata} of archive
+     * @param errors       {@link List} of {@link String} errors
+     * @return metadata {@link JsonElement} or null if archive has no metadata or it can't be parsed
+     */
+    private static JsonElement parseWrittenMetadata(FileMetadata fileMetadata, List<String> errors) {
+        byte[] bookInfoJson = fileMetadata.getBookInfoJson();
+        if (bookInfoJson == null) {
+            return null;
+        }
+
+        try {
+            return JsonParser.parseReader(new InputStreamReader(new ByteArrayInputStream(bookInfoJson), StandardCharsets.UTF_8));
+        } catch (JsonParseException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+            errors.add("Unable to read metadata for manifest: " + fileMetadata.getFile());
+            return null;
+        }
+    }
+}
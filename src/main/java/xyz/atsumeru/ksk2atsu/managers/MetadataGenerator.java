@@ -2,9 +2,14 @@ package xyz.atsumeru.ksk2atsu.managers;
 
 import me.tongfei.progressbar.ProgressBar;
 import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.database.ContentDiff;
 import xyz.atsumeru.ksk2atsu.database.Database;
+import xyz.atsumeru.ksk2atsu.database.enums.ArchiveHashType;
 import xyz.atsumeru.ksk2atsu.database.enums.CatalogType;
+import xyz.atsumeru.ksk2atsu.database.enums.MetadataOutputType;
 import xyz.atsumeru.ksk2atsu.database.models.Content;
+import xyz.atsumeru.ksk2atsu.io.FileRecord;
+import xyz.atsumeru.ksk2atsu.io.StorageProfile;
 import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
 import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
 import xyz.atsumeru.ksk2atsu.metadata.YAMLContent;
@@ -25,6 +30,10 @@ public class MetadataGenerator {
 
     private static Map<String, List<Content>> contentMapByMagazine;
 
+    private static ContentDiff contentDiff;
+    private static MetadataOutputType outputType;
+    private static ArchiveHashType archiveHashType;
+
     private static ProgressBar progressBar;
 
     /**
@@ -33,13 +42,24 @@ public class MetadataGenerator {
      * <p>
      * This method generates metadata only for Comic Magazines
      *
-     * @param inputDir     input {@link File} directory
-     * @param fileMetadata {@link List} of all {@link FileMetadata} for archives with optional {@link YAMLContent} metadata
-     * @param database     link to {@link Database} object. Used for querying all data from all tables and matching files with metadata
-     * @param reWrite      if true, metadata will be regenerated and rewrote into archive file even if present
+     * @param inputDir        input {@link File} directory
+     * @param fileMetadata    {@link List} of all {@link FileMetadata} for archives with optional {@link YAMLContent} metadata
+     * @param database        link to {@link Database} object. Used for querying all data from all tables and matching files with metadata
+     * @param reWrite         if true, metadata will be regenerated and rewrote into archive file even if present. Ignored
+     *                        if {@link ContentDiff} is present
+     * @param contentDiff     {@link ContentDiff} with previous metadata dump. If present, metadata is regenerated only for
+     *                        archives affected by changed rows. May be null
+     * @param outputType      if {@link MetadataOutputType#SIDECAR}, metadata will be saved into sidecar file next to archive,
+     *                        otherwise into archive
+     * @param archiveHashType if {@link ArchiveHashType#FINGERPRINT}, Atsumeru Archive hash will be created from archive
+     *                        content fingerprint, otherwise from archive file name
      * @return {@link List} of {@link String} errors
      */
-    public static List<String> generateForMagazines(File inputDir, List<FileMetadata> fileMetadata, Database database, boolean reWrite) {
+    public static List<String> generateForMagazines(File inputDir, List<FileMetadata> fileMetadata, Database database, boolean reWrite,
+                                                   ContentDiff contentDiff, MetadataOutputType outputType, ArchiveHashType archiveHashType) {
+        MetadataGenerator.contentDiff = contentDiff;
+        MetadataGenerator.outputType = outputType;
+        MetadataGenerator.archiveHashType = archiveHashType;
         contentMapByMagazine = getContentMapByMagazine(database);
 
         metadataByFile = fileMetadata.stream()
@@ -55,7 +75,8 @@ public class MetadataGenerator {
 
         progressBar = ProgressBarBuilder.create("Magazines metadata:", files.size());
 
-        List<String> list = files.stream()
+        // Issues are independent, so they are processed in parallel unless archives are on spinning disk
+        List<String> list = (StorageProfile.isRotational(inputDir.toPath()) ? files.stream() : files.parallelStream())
                 .map(file -> MetadataGenerator.generateMagazineMetadata(file, reWrite))
                 .filter(ArrayUtils::isNotEmpty)
                 .flatMap(Collection::stream)
@@ -72,13 +93,24 @@ public class MetadataGenerator {
      * <p>
      * This method generates metadata only for Doujinshi and Books
      *
-     * @param inputDir     input {@link File} directory
-     * @param fileMetadata {@link List} of all {@link FileMetadata} for archives with optional {@link YAMLContent} metadata
-     * @param database     link to {@link Database} object. Used for querying all data from all tables and matching files with metadata
-     * @param reWrite      if true, metadata will be regenerated and rewrote into archive file even if present
+     * @param inputDir        input {@link File} directory
+     * @param fileMetadata    {@link List} of all {@link FileMetadata} for archives with optional {@link YAMLContent} metadata
+     * @param database        link to {@link Database} object. Used for querying all data from all tables and matching files with metadata
+     * @param reWrite         if true, metadata will be regenerated and rewrote into archive file even if present. Ignored
+     *                        if {@link ContentDiff} is present
+     * @param contentDiff     {@link ContentDiff} with previous metadata dump. If present, metadata is regenerated only for
+     *                        archives affected by changed rows. May be null
+     * @param outputType      if {@link MetadataOutputType#SIDECAR}, metadata will be saved into sidecar file next to archive,
+     *                        otherwise into archive
+     * @param archiveHashType if {@link ArchiveHashType#FINGERPRINT}, Atsumeru Archive hash will be created from archive
+     *                        content fingerprint, otherwise from archive file name
      * @return {@link List} of {@link String} errors
      */
-    public static List<String> generateForDoujinshi(File inputDir, List<FileMetadata> fileMetadata, Database database, boolean reWrite) {
+    public static List<String> generateForDoujinshi(File inputDir, List<FileMetadata> fileMetadata, Database database, boolean reWrite,
+                                                   ContentDiff contentDiff, MetadataOutputType outputType, ArchiveHashType archiveHashType) {
+        MetadataGenerator.contentDiff = contentDiff;
+        MetadataGenerator.outputType = outputType;
+        MetadataGenerator.archiveHashType = archiveHashType;
         contentMapByUrl = new HashMap<>() {{
             putAll(getContentMapByUrl(database, CatalogType.UNLIMITED));
             putAll(getContentMapByUrl(database, CatalogType.DOUJIN));
@@ -92,16 +124,18 @@ public class MetadataGenerator {
         metadataByFile = fileMetadata.stream()
                 .collect(Collectors.toMap(FileMetadata::getFile, Function.identity()));
 
-        List<File> files = FileUtils.listDirs(inputDir)
+        List<FileRecord> records = FileUtils.listDirs(inputDir)
                 .stream()
                 .map(Path::toFile)
-                .map(FileUtils::listComicArchiveFiles)
+                .map(FileUtils::walkComicArchiveFiles)
                 .flatMap(Collection::stream)
                 .toList();
 
-        progressBar = ProgressBarBuilder.create("Doujins/Books metadata:", files.size());
+        progressBar = ProgressBarBuilder.create("Doujins/Books metadata:", records.size());
 
-        List<String> list = files.stream()
+        // Archives are read sequentially in inode order on spinning disks and in parallel otherwise
+        List<String> list = StorageProfile.stream(inputDir.toPath(), records)
+                .map(FileRecord::toFile)
                 .filter(file -> !MetadataGenerator.generateDoujinMetadata(file, reWrite))
                 .map(File::toString)
                 .collect(Collectors.toList());
@@ -115,13 +149,14 @@ public class MetadataGenerator {
      * Matches {@link File} with {@link Content} in {@link Database} using Url or title with author
      *
      * @param file    input {@link File}
-     * @param reWrite if true, metadata will be regenerated and rewrote into archive file even if present
+     * @param reWrite if true, metadata will be regenerated and rewrote into archive file even if present. Ignored
+     *                if {@link ContentDiff} is present, only affected archives are regenerated then
      * @return true if file matched with {@link Content} in {@link Database}, {@link File} already has metadata
      * and metadata saving was success
      */
     private static boolean generateDoujinMetadata(File file, boolean reWrite) {
         FileMetadata fileMetadata = metadataByFile.get(file);
-        if (!reWrite && fileMetadata.getBookInfo() != null) {
+        if (contentDiff != null ? !contentDiff.isAffected(fileMetadata) : !reWrite && fileMetadata.getBookInfo() != null) {
             progressBar.step();
             return true;
         }
@@ -167,7 +202,7 @@ public class MetadataGenerator {
     }
 
     /**
-     * Create {@link BookInfo} metadata from {@link Content} and save it into archive {@link File}
+     * Create {@link BookInfo} metadata from {@link Content} and save it for archive {@link File}
      *
      * @param file    input {@link File}
      * @param content matched {@link Content} from {@link Database}
@@ -178,7 +213,8 @@ public class MetadataGenerator {
     }
 
     /**
-     * Create {@link BookInfo} metadata from {@link Content} and save it into archive {@link File}
+     * Create {@link BookInfo} metadata from {@link Content} and save it into archive {@link File} or into its sidecar
+     * file depending on {@link MetadataOutputType}
      *
      * @param file      input {@link File}
      * @param content   matched {@link Content} from {@link Database}
@@ -186,6 +222,10 @@ public class MetadataGenerator {
      * @return true if content was saved
      */
     private static boolean saveBookMetadata(File file, Content content, String serieHash) {
+        if (outputType == MetadataOutputType.SIDECAR) {
+            return BookInfo.saveToSidecar(file, content, serieHash, createContentHash(file), false);
+        }
+
         return BookInfo.saveIntoArchive(
                 file,
                 content,
@@ -197,17 +237,16 @@ public class MetadataGenerator {
     }
 
     /**
-     * Create Atsumeru Serie {@link BookInfo} metadata from {@link List} of {@link Content} and save it into Atsumeru Serie folder
+     * Create Atsumeru Serie {@link BookInfo} metadata from {@link Content.Merger} and save it into Atsumeru Serie folder
      *
-     * @param inputFolder     input {@link File}
-     * @param serieFolderName Atsumeru Serie folder name
-     * @param contents        {@link List} of {@link Content} for all {@link File} in input folder
-     * @param serieHash       special Atsumeru hash that represents Serie uniq identifier
+     * @param inputFolder input {@link File}
+     * @param merger      {@link Content.Merger} with {@link Content} of all {@link File} in input folder
+     * @param serieHash   special Atsumeru hash that represents Serie uniq identifier
      */
-    private static void saveSerieMetadata(File inputFolder, String serieFolderName, List<Content> contents, String serieHash) {
+    private static void saveSerieMetadata(File inputFolder, Content.Merger merger, String serieHash) {
         BookInfo.saveToFile(
                 inputFolder.getPath() + File.separator + App.SERIE_INFO_JSON,
-                Content.merge(serieFolderName, contents),
+                merger.build(),
                 serieHash,
                 null,
                 true,
@@ -219,7 +258,8 @@ public class MetadataGenerator {
      * Matches {@link File} with {@link Content} in {@link Database} using Magazine name and Issue
      *
      * @param archivesDir input {@link File}
-     * @param reWrite     if true, metadata will be regenerated and rewrote into archive file even if present
+     * @param reWrite     if true, metadata will be regenerated and rewrote into archive file even if present. Ignored
+     *                    if {@link ContentDiff} is present, only affected archives are regenerated then
      * @return {@link List} of {@link String} errors
      */
     private static List<String> generateMagazineMetadata(File archivesDir, boolean reWrite) {
@@ -232,27 +272,35 @@ public class MetadataGenerator {
             return List.of("Unable to detect magazine: " + fileName);
         }
 
+        // Issue is not affected by changes in metadata dump. Keep its metadata and Serie metadata as is
+        List<File> files = FileUtils.listComicArchiveFiles(archivesDir);
+        if (contentDiff != null && files.stream().map(metadataByFile::get).noneMatch(contentDiff::isAffected)) {
+            progressBar.step();
+            return List.of();
+        }
+
         String serieHash = createSerieHash(archivesDir);
 
         List<String> errors = new ArrayList<>();
-        List<Content> contents = new ArrayList<>();
-        for (File file : FileUtils.listComicArchiveFiles(archivesDir)) {
+        Content.Merger merger = new Content.Merger(archivesDir.getName());
+        for (File file : files) {
             Pair<Content, String> contentPair = getContentFromFile(magazineContent, file);
             Content content = contentPair.first;
             if (content != null) {
-                if (reWrite || metadataByFile.get(file).getBookInfo() == null) {
+                FileMetadata fileMetadata = metadataByFile.get(file);
+                if (contentDiff != null ? contentDiff.isAffected(fileMetadata) : reWrite || fileMetadata.getBookInfo() == null) {
                     if (!saveBookMetadata(file, content, serieHash)) {
                         errors.add("Unable to write metadata: " + file);
                     }
                 }
 
-                contents.add(content);
+                merger.add(content);
             } else {
                 errors.add(contentPair.second);
             }
         }
 
-        saveSerieMetadata(archivesDir, archivesDir.getName(), contents, serieHash);
+        saveSerieMetadata(archivesDir, merger, serieHash);
 
         progressBar.step();
 
@@ -294,12 +342,24 @@ public class MetadataGenerator {
     }
 
     /**
-     * Generate Atsumeru Archive hash for file
+     * Generate Atsumeru Archive hash for file. With {@link ArchiveHashType#FINGERPRINT} hash is created from
+     * {@link FileMetadata#getFingerprint()}, so it stays the same after renaming and differs for different archives with
+     * the same name. Archive name is used if fingerprint is unavailable
      *
      * @param file input {@link File}
      * @return {@link String} Atsumeru Archive hash
      */
     private static String createContentHash(File file) {
+        if (archiveHashType == ArchiveHashType.FINGERPRINT) {
+            String fingerprint = Optional.ofNullable(metadataByFile.get(file))
+                    .map(FileMetadata::getFingerprint)
+                    .orElse(null);
+
+            if (StringUtils.isNotEmpty(fingerprint)) {
+                return App.ARCHIVE_HASH_TAG + fingerprint;
+            }
+        }
+
         return App.ARCHIVE_HASH_TAG + StringUtils.md5Hex(App.APP_NAME + file.getName().toLowerCase());
     }
 
@@ -1,21 +1,25 @@
 package xyz.atsumeru.ksk2atsu.managers;
 
-import com.google.gson.Gson;
 import me.tongfei.progressbar.ProgressBar;
-import org.apache.commons.io.IOUtils;
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.Constructor;
 import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.io.FileRecord;
+import xyz.atsumeru.ksk2atsu.io.IoThrottle;
+import xyz.atsumeru.ksk2atsu.io.StorageProfile;
 import xyz.atsumeru.ksk2atsu.metadata.BookInfo;
 import xyz.atsumeru.ksk2atsu.metadata.FileMetadata;
+import xyz.atsumeru.ksk2atsu.metadata.MetadataReader;
 import xyz.atsumeru.ksk2atsu.metadata.YAMLContent;
 import xyz.atsumeru.ksk2atsu.utils.FileUtils;
 import xyz.atsumeru.ksk2atsu.utils.ProgressBarBuilder;
 import xyz.atsumeru.ksk2atsu.utils.StringUtils;
 import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.nio.charset.StandardCharsets;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -23,27 +27,35 @@ import java.util.stream.Collectors;
  * Iterates over given {@link List} of {@link File} archives and parses {@link YAMLContent} and {@link BookInfo} metadata
  */
 public class MetadataParser {
-    private static final Yaml yaml = new Yaml(new Constructor(YAMLContent.class));
-    private static final Gson gson = new Gson();
 
     /**
-     * Parse {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata in {@link File} dir recursively
+     * Parse {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata in {@link File} dir recursively.
+     * Archives are read sequentially in inode order on spinning disks and in parallel otherwise, see {@link StorageProfile}
      *
      * @param dir input {@link File} dir
      * @return {@link List} of {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata
      */
     public static List<FileMetadata> parse(File dir) {
-        List<File> files = FileUtils.listComicArchiveFiles(dir);
-        ProgressBar progressBar = ProgressBarBuilder.create("Parsing metadata:", files.size());
+        return parse(dir, false);
+    }
+
+    /**
+     * Parse {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata in {@link File} dir recursively.
+     * Archives are read sequentially in inode order on spinning disks and in parallel otherwise, see {@link StorageProfile}
+     *
+     * @param dir              input {@link File} dir
+     * @param keepBookInfoJson if true, raw book_info.json payload is kept in {@link FileMetadata#getBookInfoJson()},
+     *                         so it may be exported without opening archives again
+     * @return {@link List} of {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata
+     */
+    public static List<FileMetadata> parse(File dir, boolean keepBookInfoJson) {
+        List<FileRecord> records = FileUtils.walkComicArchiveFiles(dir);
+        ProgressBar progressBar = ProgressBarBuilder.create("Parsing metadata:", records.size());
 
-        List<FileMetadata> list = files.stream()
-                .peek(file -> progressBar.step())
-                .filter(file -> {
-                    // Check if given file is zip or cbz file by extension
-                    String extension = FileUtils.getFileExtension(file).toLowerCase();
-                    return extension.equalsIgnoreCase(App.ZIP_EXTENSION) || extension.equalsIgnoreCase(App.CBZ_EXTENSION);
-                })
-                .map(MetadataParser::readMetadata)
+        List<FileMetadata> list = StorageProfile.stream(dir.toPath(), records)
+                .peek(record -> progressBar.step())
+                .map(FileRecord::toFile)
+                .map(file -> readMetadata(file, keepBookInfoJson))
                 .collect(Collectors.toList());
 
         progressBar.close();
@@ -52,38 +64,77 @@ public class MetadataParser {
     }
 
     /**
-     * Parse {@link YAMLContent} and {@link BookInfo} metadata and construct {@link FileMetadata} object
+     * Parse {@link YAMLContent} and {@link BookInfo} metadata and construct {@link FileMetadata} object. If sidecar
+     * metadata file is present next to archive, {@link BookInfo} is read from it instead of archive
      *
-     * @param zipFile zip {@link File} to read and parse
+     * @param zipFile          zip {@link File} to read and parse
+     * @param keepBookInfoJson if true, raw book_info.json payload is kept in {@link FileMetadata}
      * @return {@link FileMetadata} with {@link YAMLContent} and {@link BookInfo} metadata
      */
-    private static FileMetadata readMetadata(File zipFile) {
+    private static FileMetadata readMetadata(File zipFile, boolean keepBookInfoJson) {
         try (ZipIterator zipIterator = ZipIterator.open(zipFile)) {
             YAMLContent yamlContent = null;
             BookInfo bookInfo = null;
+            byte[] bookInfoJson = null;
+
+            // Sidecar metadata file replaces book_info.json of archive
+            File sidecarFile = BookInfo.getSidecarFile(zipFile);
+            if (sidecarFile.isFile()) {
+                IoThrottle.acquireOperation();
+                try (InputStream inputStream = new BufferedInputStream(IoThrottle.throttle(new FileInputStream(sidecarFile)))) {
+                    bookInfoJson = keepBookInfoJson ? inputStream.readAllBytes() : null;
+                    bookInfo = readBookInfo(inputStream, bookInfoJson);
+                }
+            }
+
             while (zipIterator.next() && (yamlContent == null || bookInfo == null)) {
                 // Check if entry is info.yaml metadata file
                 String extension = FileUtils.getFileExtension(new File(zipIterator.getEntryName())).toLowerCase();
                 if (extension.equals("yaml")) {
-                    // Deserialize info.yaml into YAMLContent model
-                    yamlContent = yaml.load(IOUtils.toString(zipIterator.getEntryInputStream(), StandardCharsets.UTF_8).replace("- - ", "  - "));
+                    // Read needed info.yaml fields into YAMLContent model
+                    try (InputStream inputStream = zipIterator.getEntryInputStream()) {
+                        yamlContent = MetadataReader.readYAMLContent(inputStream);
+                    }
                     continue;
                 }
 
                 // Check if entry is book_info.json metadata file
                 String fileName = zipIterator.getEntryName().toLowerCase();
-                if (StringUtils.equalsIgnoreCase(fileName, App.BOOK_INFO_JSON)) {
-                    // Deserialize book_info.json into BookInfo model
-                    bookInfo = gson.fromJson(IOUtils.toString(zipIterator.getEntryInputStream(), StandardCharsets.UTF_8), BookInfo.class);
+                if (bookInfo == null && StringUtils.equalsIgnoreCase(fileName, App.BOOK_INFO_JSON)) {
+                    // Read needed book_info.json fields into BookInfo model
+                    try (InputStream inputStream = zipIterator.getEntryInputStream()) {
+                        bookInfoJson = keepBookInfoJson ? inputStream.readAllBytes() : null;
+                        bookInfo = readBookInfo(inputStream, bookInfoJson);
+                    }
                 }
             }
 
-            // Construct FileMetadata from parsed YAMLContent and BookInfo
-            return new FileMetadata(zipFile, yamlContent, bookInfo);
+            // Construct FileMetadata from parsed YAMLContent, BookInfo, amount of images and content fingerprint. Generated
+            // metadata is excluded from fingerprint, so it doesn't change when metadata is rewritten
+            return new FileMetadata(
+                    zipFile,
+                    yamlContent,
+                    bookInfo,
+                    zipIterator.countEntries(FileUtils::isImageFile),
+                    zipIterator.getFingerprint(name -> !StringUtils.equalsIgnoreCase(name, App.BOOK_INFO_JSON)),
+                    bookInfoJson
+            );
         } catch (Exception e) {
             System.err.println("Error opening file: " + zipFile);
             e.printStackTrace();
         }
-        return new FileMetadata(zipFile, null, null);
+        return new FileMetadata(zipFile, null, null, 0, null, null);
+    }
+
+    /**
+     * Read {@link BookInfo} from book_info.json {@link InputStream} or from its already read payload
+     *
+     * @param inputStream  book_info.json {@link InputStream}
+     * @param bookInfoJson already read book_info.json payload or null if stream wasn't read yet
+     * @return {@link BookInfo} metadata
+     * @throws IOException if an I/O error has occurred or json is malformed
+     */
+    private static BookInfo readBookInfo(InputStream inputStream, byte[] bookInfoJson) throws IOException {
+        return MetadataReader.readBookInfo(bookInfoJson != null ? new ByteArrayInputStream(bookInfoJson) : inputStream);
     }
 }
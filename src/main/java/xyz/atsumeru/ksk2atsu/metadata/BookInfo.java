@@ -1,15 +1,18 @@
 package xyz.atsumeru.ksk2atsu.metadata;
 
 import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import lombok.AccessLevel;
 import lombok.Getter;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import lombok.Setter;
+import org.apache.commons.io.output.CountingOutputStream;
 import xyz.atsumeru.ksk2atsu.App;
 import xyz.atsumeru.ksk2atsu.adapters.StringToListAdapter;
 import xyz.atsumeru.ksk2atsu.database.enums.CatalogType;
 import xyz.atsumeru.ksk2atsu.database.models.Content;
 import xyz.atsumeru.ksk2atsu.utils.ArrayUtils;
 import xyz.atsumeru.ksk2atsu.utils.ComicUtils;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
 import xyz.atsumeru.ksk2atsu.utils.StringUtils;
 import xyz.atsumeru.ksk2atsu.utils.UrlUtils;
 import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
@@ -17,11 +20,17 @@ import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Model for book_info.json metadata that will be saved into all archives in raw dump
  */
+@Setter(AccessLevel.PACKAGE)
 public class BookInfo {
+    private static final String JSON_INDENT = "    ";
+
     @Getter
     private String link;
     @Getter
@@ -37,9 +46,14 @@ public class BookInfo {
     private String publisher;
     @Getter
     private String event;
+    // Persisted Atsumeru hashes from "atsumeru" object
+    @Getter
+    private String serieHash;
+    @Getter
+    private String hash;
 
     /**
-     * Save metadata into file in filesystem
+     * Save metadata into file in filesystem. Existing file is not rewritten if its content is the same
      *
      * @param path        path to file in which metadata will be saved
      * @param content     {@link Content} with actual metadata that will be converted into json format
@@ -48,164 +62,347 @@ public class BookInfo {
      * @param isSerie     indicates if actual metadata is intended for Atsumeru Serie
      * @param isDoujinshi indicates that actual Atsumeru Archive is {@link CatalogType#DOUJIN} and depending on that,
      *                    some result metadata will change
+     * @return true if content was saved
      */
-    public static void saveToFile(String path, Content content, String serieHash, String contentHash, boolean isSerie, boolean isDoujinshi) {
+    public static boolean saveToFile(String path, Content content, String serieHash, String contentHash, boolean isSerie, boolean isDoujinshi) {
+        return saveToFile(path, content, serieHash, contentHash, null, isSerie, isDoujinshi);
+    }
+
+    /**
+     * Same method as {@link #saveToFile(String, Content, String, String, boolean, boolean)} but with {@link List} of
+     * {@link PageInfo} that will be written into metadata
+     *
+     * @param path        path to file in which metadata will be saved
+     * @param content     {@link Content} with actual metadata that will be converted into json format
+     * @param serieHash   special Atsumeru hash that represents Serie uniq identifier
+     * @param contentHash special Atsumeru hash that represents Archive uniq identifier
+     * @param pages       {@link List} of {@link PageInfo} of archive. May be null
+     * @param isSerie     indicates if actual metadata is intended for Atsumeru Serie
+     * @param isDoujinshi indicates that actual Atsumeru Archive is {@link CatalogType#DOUJIN} and depending on that,
+     *                    some result metadata will change
+     * @return true if content was saved
+     */
+    private static boolean saveToFile(String path, Content content, String serieHash, String contentHash, List<PageInfo> pages, boolean isSerie, boolean isDoujinshi) {
         try {
-            Writer writerBookInfo = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8);
-            writerBookInfo.write(toJSON(content, serieHash, contentHash, isSerie, isDoujinshi).toString(4));
-            writerBookInfo.close();
+            ZipIterator.EntryWriter entryWriter = outputStream -> writeJSON(outputStream, content, serieHash, contentHash, pages, isSerie, isDoujinshi);
+            if (isFileUnchanged(new File(path), entryWriter)) {
+                return true;
+            }
+
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(path))) {
+                entryWriter.write(outputStream);
+            }
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
     /**
-     * Same method as {@link #saveToFile(String, Content, String, String, boolean, boolean)} but saves json metadata
-     * directly into archive file
+     * Same method as {@link #saveToFile(String, Content, String, String, boolean, boolean)} but saves metadata into
+     * sidecar file next to archive, see {@link #getSidecarFile(File)}. Archive itself is opened only for reading image
+     * headers with {@link ImageHeaderReader} and is never rewritten
      *
-     * @param archive     archive {@link File} into which metadata will be saved
+     * @param archive     archive {@link File} for which metadata will be saved
      * @param content     {@link Content} with actual metadata that will be converted into json format
      * @param serieHash   special Atsumeru hash that represents Serie uniq identifier
      * @param contentHash special Atsumeru hash that represents Archive uniq identifier
-     * @param isSerie     indicates if actual metadata is intended for Atsumeru Serie
      * @param isDoujinshi indicates that actual Atsumeru Archive is {@link CatalogType#DOUJIN} and depending on that,
      *                    some result metadata will change
      * @return true if content was saved
      */
-    public static boolean saveIntoArchive(File archive, Content content, String serieHash, String contentHash, boolean isSerie, boolean isDoujinshi) {
+    public static boolean saveToSidecar(File archive, Content content, String serieHash, String contentHash, boolean isDoujinshi) {
+        List<PageInfo> pages;
         try (ZipIterator zipIterator = ZipIterator.open(archive)) {
-            Map<String, String> contentToSave = new HashMap<>();
-            contentToSave.put(App.BOOK_INFO_JSON, toJSON(content, serieHash, contentHash, isSerie, isDoujinshi).toString(4));
-            return zipIterator.saveIntoArchive(archive.toString(), contentToSave);
-        } catch (Exception e) {
+            pages = ImageHeaderReader.readPages(zipIterator);
+        } catch (IOException e) {
             e.printStackTrace();
             return false;
         }
+
+        return saveToFile(getSidecarFile(archive).getPath(), content, serieHash, contentHash, pages, false, isDoujinshi);
+    }
+
+    /**
+     * Get sidecar metadata {@link File} for archive. Sidecar is placed next to archive and named
+     * <b>{archive name without extension}.book_info.json</b>
+     *
+     * @param archive archive {@link File}
+     * @return sidecar metadata {@link File}
+     */
+    public static File getSidecarFile(File archive) {
+        return new File(archive.getParentFile(), FileUtils.getFileNameWithoutExtension(archive) + "." + App.BOOK_INFO_JSON);
     }
 
     /**
-     * Converts {@link Content} model into {@link JSONObject} that will be saved as metadata
+     * Same method as {@link #saveToFile(String, Content, String, String, boolean, boolean)} but streams json metadata
+     * directly into archive entry
+     * <p>
+     * Json metadata is first streamed into checksum only and compared with size and CRC32 of existing entry from archive
+     * central directory. Archive is rewritten only if metadata really changed. Archive metadata also contains pages with
+     * image dimensions from {@link ImageHeaderReader}
      *
+     * @param archive     archive {@link File} into which metadata will be saved
      * @param content     {@link Content} with actual metadata that will be converted into json format
      * @param serieHash   special Atsumeru hash that represents Serie uniq identifier
      * @param contentHash special Atsumeru hash that represents Archive uniq identifier
      * @param isSerie     indicates if actual metadata is intended for Atsumeru Serie
      * @param isDoujinshi indicates that actual Atsumeru Archive is {@link CatalogType#DOUJIN} and depending on that,
      *                    some result metadata will change
-     * @return {@link JSONObject} with metadata
+     * @return true if content was saved
      */
-    public static JSONObject toJSON(Content content, String serieHash, String contentHash, boolean isSerie, boolean isDoujinshi) {
-        JSONObject obj = new JSONObject();
+    public static boolean saveIntoArchive(File archive, Content content, String serieHash, String contentHash, boolean isSerie, boolean isDoujinshi) {
+        try (ZipIterator zipIterator = ZipIterator.open(archive)) {
+            List<PageInfo> pages = !isSerie ? ImageHeaderReader.readPages(zipIterator) : null;
+            ZipIterator.EntryWriter entryWriter = outputStream -> writeJSON(outputStream, content, serieHash, contentHash, pages, isSerie, isDoujinshi);
+
+            Digest digest = computeDigest(entryWriter);
+            if (zipIterator.containsEntry(App.BOOK_INFO_JSON, digest.size(), digest.crc32())) {
+                return true;
+            }
+
+            return zipIterator.saveIntoArchive(archive.toString(), App.BOOK_INFO_JSON, entryWriter);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Check if existing {@link File} has exactly the same content that {@link ZipIterator.EntryWriter} writes. Sizes are
+     * compared first, so file is read only if sizes are equal
+     *
+     * @param file        existing {@link File}
+     * @param entryWriter {@link ZipIterator.EntryWriter} of new content
+     * @return true if {@link File} exists and has the same content
+     * @throws IOException if an I/O error has occurred
+     */
+    private static boolean isFileUnchanged(File file, ZipIterator.EntryWriter entryWriter) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+
+        Digest digest = computeDigest(entryWriter);
+        if (digest.size() != file.length()) {
+            return false;
+        }
+
+        CRC32 fileChecksum = new CRC32();
+        try (InputStream inputStream = new CheckedInputStream(new FileInputStream(file), fileChecksum)) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        return fileChecksum.getValue() == digest.crc32();
+    }
+
+    /**
+     * Compute size and CRC32 checksum of content that {@link ZipIterator.EntryWriter} writes without storing content
+     *
+     * @param entryWriter {@link ZipIterator.EntryWriter} of content
+     * @return {@link Digest} of content
+     * @throws IOException if an I/O error has occurred
+     */
+    private static Digest computeDigest(ZipIterator.EntryWriter entryWriter) throws IOException {
+        CountingOutputStream countingStream = new CountingOutputStream(OutputStream.nullOutputStream());
+        CheckedOutputStream checkedStream = new CheckedOutputStream(countingStream, new CRC32());
+        entryWriter.write(checkedStream);
+        return new Digest(countingStream.getByteCount(), checkedStream.getChecksum().getValue());
+    }
+
+    /**
+     * Stream {@link Content} model as json metadata into {@link OutputStream} with {@link JsonWriter}. Fields are always
+     * written in the same order and pretty printed with 4 spaces indent. Given {@link OutputStream} is not closed
+     *
+     * @param outputStream {@link OutputStream} into which metadata will be written
+     * @param content      {@link Content} with actual metadata that will be converted into json format
+     * @param serieHash    special Atsumeru hash that represents Serie uniq identifier
+     * @param contentHash  special Atsumeru hash that represents Archive uniq identifier
+     * @param pages        {@link List} of {@link PageInfo} of archive. Pages are not written if null
+     * @param isSerie      indicates if actual metadata is intended for Atsumeru Serie
+     * @param isDoujinshi  indicates that actual Atsumeru Archive is {@link CatalogType#DOUJIN} and depending on that,
+     *                     some result metadata will change
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void writeJSON(OutputStream outputStream, Content content, String serieHash, String contentHash, List<PageInfo> pages,
+                                 boolean isSerie, boolean isDoujinshi) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.setIndent(JSON_INDENT);
+        writer.setHtmlSafe(false);
+
+        writer.beginObject();
 
         // Basic Metadata
-        putHashes(obj, serieHash, contentHash);
+        writeHashes(writer, serieHash, contentHash);
 
-        putJSON(obj, "link", content.getUrl());
-        putLinks(obj, content.getUrl());
-        putJSON(obj, "cover", contentHash);
+        writeJSON(writer, "link", content.getUrl());
+        writeLinks(writer, content.getUrl());
+        writeJSON(writer, "cover", contentHash);
 
         // Titles
-        putJSON(obj, "title", content.getTitle());
-        putJSON(obj, "alt_title", isSerie ? content.getAuthor() : null);
+        writeJSON(writer, "title", content.getTitle());
+        writeJSON(writer, "alt_title", isSerie ? content.getAuthor() : null);
 
         // Main info
-        putJSON(obj, "country", "Japan");
-        putJSON(obj, "publisher", content.getPublisher());
+        writeJSON(writer, "country", "Japan");
+        writeJSON(writer, "publisher", content.getPublisher());
 
-        Optional.ofNullable(content.getMagazine())
+        String issueYear = Optional.ofNullable(content.getMagazine())
                 .map(magazine -> ComicUtils.detectComicNameAndIssue(magazine.split(",")[0].trim(), 0))
                 .map(pair -> pair.second)
-                .filter(issueYear -> issueYear.startsWith("20"))
-                .ifPresent(issueYear -> putJSON(obj, "published", issueYear));
+                .filter(year -> year.startsWith("20"))
+                .orElse(null);
+        writeJSON(writer, "published", issueYear);
 
-        putJSON(obj, "event", content.getEvent());
-        putJSON(obj, "description", content.getDescription());
+        writeJSON(writer, "event", content.getEvent());
+        writeJSON(writer, "description", content.getDescription());
 
         // Info lists
-        putJSON(obj, "authors", ArrayUtils.splitString(content.getAuthor()));
-        putJSON(obj, "artists", ArrayUtils.splitString(content.getArtists()));
-        putJSON(obj, "languages", ArrayUtils.splitString(content.getLanguage()));
-        putJSON(obj, "translators", ArrayUtils.splitString(content.getPublisher()));
-        putJSON(obj, "parodies", ArrayUtils.splitString(content.getParodies()));
-        putJSON(obj, "circles", ArrayUtils.splitString(content.getCircles()));
-        putJSON(obj, "magazines", ArrayUtils.splitString(
-                Optional.ofNullable(content.getMagazine())
-                        .map(str -> str.replace("Comic", "COMIC"))
-                        .orElse("")
-        ));
+        writeSplitString(writer, "authors", content.getAuthor());
+        writeSplitString(writer, "artists", content.getArtists());
+        writeSplitString(writer, "languages", content.getLanguage());
+        writeSplitString(writer, "translators", content.getPublisher());
+        writeSplitString(writer, "parodies", content.getParodies());
+        writeSplitString(writer, "circles", content.getCircles());
+        writeSplitString(writer, "magazines", Optional.ofNullable(content.getMagazine())
+                .map(str -> str.replace("Comic", "COMIC"))
+                .orElse(""));
 
         // Genres/Tags
-        putJSON(obj, "tags", content.getTags());
+        writeJSON(writer, "tags", content.getTags());
 
         // Age Rating
-        putJSON(obj, "age_rating", "ADULTS_ONLY");
+        writeJSON(writer, "age_rating", "ADULTS_ONLY");
 
         // Statuses
-        putJSON(obj, "status", !isSerie ? "COMPLETE" : "MAGAZINE");
-        putJSON(obj, "translation_status", !isSerie ? "COMPLETE" : "ONGOING");
-        putJSON(obj, "censorship", content.getCensorship());
-        putJSON(obj, "content_type", isDoujinshi ? "DOUJINSHI" : "HENTAI_MANGA");
-        putJSON(obj, "color", content.getColor());
+        writeJSON(writer, "status", !isSerie ? "COMPLETE" : "MAGAZINE");
+        writeJSON(writer, "translation_status", !isSerie ? "COMPLETE" : "ONGOING");
+        writeJSON(writer, "censorship", content.getCensorship());
+        writeJSON(writer, "content_type", isDoujinshi ? "DOUJINSHI" : "HENTAI_MANGA");
+        writeJSON(writer, "color", content.getColor());
+
+        // Pages
+        writePages(writer, pages);
 
-        return obj;
+        writer.endObject();
+        writer.flush();
     }
 
     /**
-     * Create {@link JSONArray} object with special Atsumeru Serie/Archive hashes and put it into {@link JSONObject} metadata
+     * Write object with special Atsumeru Serie/Archive hashes into json metadata
      *
-     * @param obj         {@link JSONObject} with metadata
+     * @param writer      {@link JsonWriter} of metadata
      * @param serieHash   special Atsumeru hash that represents Serie uniq identifier
      * @param archiveHash special Atsumeru hash that represents Archive uniq identifier
+     * @throws IOException if an I/O error has occurred
+     */
+    private static void writeHashes(JsonWriter writer, String serieHash, String archiveHash) throws IOException {
+        writer.name("atsumeru").beginObject();
+        writeJSON(writer, "serie_hash", serieHash);
+        writeJSON(writer, "hash", archiveHash);
+        writer.endObject();
+    }
+
+    /**
+     * Write pages count and array with pages objects that contain image name and dimensions into json metadata. Nothing
+     * is written if pages are null
+     *
+     * @param writer {@link JsonWriter} of metadata
+     * @param pages  {@link List} of {@link PageInfo}
+     * @throws IOException if an I/O error has occurred
      */
-    private static void putHashes(JSONObject obj, String serieHash, String archiveHash) {
-        JSONObject atsumeru = new JSONObject();
-        putJSON(atsumeru, "serie_hash", serieHash);
-        putJSON(atsumeru, "hash", archiveHash);
+    private static void writePages(JsonWriter writer, List<PageInfo> pages) throws IOException {
+        if (pages == null) {
+            return;
+        }
 
-        obj.put("atsumeru", atsumeru);
+        writer.name("pages_count").value(pages.size());
+        writer.name("pages").beginArray();
+        for (PageInfo page : pages) {
+            writer.beginObject();
+            writer.name("name").value(page.name());
+            writer.name("width").value(page.width());
+            writer.name("height").value(page.height());
+            writer.endObject();
+        }
+        writer.endArray();
     }
 
     /**
-     * Create {@link JSONArray} object with {@link JSONObject} links and put it into {@link JSONObject} metadata
+     * Write array with links object into json metadata. Nothing is written if link has no data
      *
-     * @param obj  {@link JSONObject} with metadata
-     * @param link online link for content in archive
+     * @param writer {@link JsonWriter} of metadata
+     * @param link   online link for content in archive
+     * @throws IOException if an I/O error has occurred
      */
-    private static void putLinks(JSONObject obj, String link) {
-        JSONArray linksArray = new JSONArray();
-        JSONObject linksObj = new JSONObject();
-        putJSON(linksObj, "source", UrlUtils.getHostName(link));
-        putJSON(linksObj, "link", link);
-        linksArray.put(linksObj);
-
-        if (!linksObj.isEmpty()) {
-            obj.put("links", linksArray);
+    private static void writeLinks(JsonWriter writer, String link) throws IOException {
+        String source = UrlUtils.getHostName(link);
+        if (StringUtils.isNotEmpty(source) || StringUtils.isNotEmpty(link)) {
+            writer.name("links").beginArray().beginObject();
+            writeJSON(writer, "source", source);
+            writeJSON(writer, "link", link);
+            writer.endObject().endArray();
         }
     }
 
     /**
-     * Put {@link Collection} into {@link JSONObject} metadata with given name
+     * Split {@link String} with "," as delimiter and write it as array into json metadata with given name. Blank values
+     * are skipped, and nothing is written if there are no values. Same as {@link ArrayUtils#splitString(String)} but
+     * without creating intermediate {@link List}
      *
-     * @param obj        {@link JSONObject} with metadata
-     * @param name       collection name
-     * @param collection actual {@link Collection} with data
+     * @param writer {@link JsonWriter} of metadata
+     * @param name   array name
+     * @param value  {@link String} with values separated by ","
+     * @throws IOException if an I/O error has occurred
      */
-    private static void putJSON(JSONObject obj, String name, Collection<?> collection) {
-        if (ArrayUtils.isNotEmpty(collection)) {
-            obj.put(name, collection);
+    private static void writeSplitString(JsonWriter writer, String name, String value) throws IOException {
+        if (!StringUtils.isNotEmpty(value)) {
+            return;
+        }
+
+        boolean isArrayStarted = false;
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(',', start);
+            if (end < 0) {
+                end = value.length();
+            }
+
+            String item = value.substring(start, end).trim();
+            if (!item.isEmpty()) {
+                if (!isArrayStarted) {
+                    writer.name(name).beginArray();
+                    isArrayStarted = true;
+                }
+                writer.value(item);
+            }
+            start = end + 1;
+        }
+
+        if (isArrayStarted) {
+            writer.endArray();
         }
     }
 
     /**
-     * Put {@link String} into {@link JSONObject} metadata with given name
+     * Write {@link String} into json metadata with given name. Empty values are skipped
      *
-     * @param obj   {@link JSONObject} with metadata
-     * @param name  string name
-     * @param value actual {@link String} with data
+     * @param writer {@link JsonWriter} of metadata
+     * @param name   string name
+     * @param value  actual {@link String} with data
+     * @throws IOException if an I/O error has occurred
      */
-    private static void putJSON(JSONObject obj, String name, String value) {
+    private static void writeJSON(JsonWriter writer, String name, String value) throws IOException {
         if (StringUtils.isNotEmpty(value)) {
-            obj.put(name, value);
+            writer.name(name).value(value);
         }
     }
+
+    /**
+     * Size and CRC32 checksum of json metadata
+     *
+     * @param size  size in bytes
+     * @param crc32 CRC32 checksum
+     */
+    private record Digest(long size, long crc32) {
+    }
 }
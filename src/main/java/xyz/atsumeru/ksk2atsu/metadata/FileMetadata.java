@@ -15,8 +15,9 @@ import java.util.Optional;
 @Data
 @AllArgsConstructor
 public class FileMetadata {
-    private static final String MAGAZINE_WITH_ISSUE_PATTERN = ".* (\\(([^)]+)\\))\\.cbz";
-    private static final String PUBLISHER_PATTERN = "^..*(\\[([^)]+)]).*\\.cbz";
+    // Archives in input dir may still have *.zip extension
+    private static final String MAGAZINE_WITH_ISSUE_PATTERN = ".* (\\(([^)]+)\\))\\.(?:cbz|zip)";
+    private static final String PUBLISHER_PATTERN = "^..*(\\[([^)]+)]).*\\.(?:cbz|zip)";
 
     private static final String SUCH_THING_FIRST_ISSUE_URL_PART = "therebgbs-no-such-thing-as-18-in-this-parallel-world-1-english";
 
@@ -268,6 +269,12 @@ public class FileMetadata {
     private File file;
     private YAMLContent yamlContent;
     private BookInfo bookInfo;
+    // Amount of images in archive
+    private int pagesCount;
+    // Fingerprint of archive content from central directory, see ZipIterator#getFingerprint
+    private String fingerprint;
+    // Raw book_info.json payload. Kept only when it was requested from MetadataParser, otherwise null
+    private byte[] bookInfoJson;
 
     /**
      * Get Volume with leading zeroes formatted number
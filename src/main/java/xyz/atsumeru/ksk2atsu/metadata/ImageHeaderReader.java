@@ -0,0 +1,227 @@
+package xyz.atsumeru.ksk2atsu.metadata;
+
+import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.zip.ZipIterator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads image dimensions from image headers only. Images are never decoded: PNG, GIF, BMP and WebP dimensions are taken
+ * from first bytes of file and JPEG dimensions from SOF marker, which is found by skipping preceding segments
+ */
+public class ImageHeaderReader {
+    private static final int HEADER_SIZE = 30;
+
+    /**
+     * Read {@link PageInfo} for all images in archive in natural order. {@link ZipIterator} is reset before and after reading
+     *
+     * @param zipIterator opened {@link ZipIterator}
+     * @return {@link List} of {@link PageInfo}
+     * @throws IOException if an I/O error has occurred
+     */
+    public static List<PageInfo> readPages(ZipIterator zipIterator) throws IOException {
+        List<PageInfo> pages = new ArrayList<>();
+
+        zipIterator.reset();
+        while (zipIterator.next()) {
+            String entryName = zipIterator.getEntryName();
+            if (FileUtils.isImageFile(entryName)) {
+                try (InputStream inputStream = zipIterator.getEntryInputStream()) {
+                    pages.add(read(entryName, inputStream));
+                }
+            }
+        }
+        zipIterator.reset();
+
+        return pages;
+    }
+
+    /**
+     * Read {@link PageInfo} from image header in {@link InputStream}. Unknown or broken images have zero dimensions
+     *
+     * @param name        image file name
+     * @param inputStream {@link InputStream} of image. Not closed by this method
+     * @return {@link PageInfo}
+     */
+    public static PageInfo read(String name, InputStream inputStream) {
+        try {
+            DataInputStream stream = new DataInputStream(new BufferedInputStream(inputStream, HEADER_SIZE));
+            stream.mark(HEADER_SIZE);
+            byte[] header = stream.readNBytes(HEADER_SIZE);
+
+            // JPEG: SOI marker
+            if (header.length >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8) {
+                stream.reset();
+                stream.skipNBytes(2);
+                return readJPEG(name, stream);
+            }
+
+            // PNG: signature and IHDR chunk
+            if (header.length >= 24 && (header[0] & 0xFF) == 0x89 && startsWith(header, 1, "PNG") && startsWith(header, 12, "IHDR")) {
+                return new PageInfo(name, readIntBE(header, 16), readIntBE(header, 20));
+            }
+
+            // GIF: logical screen descriptor
+            if (header.length >= 10 && startsWith(header, 0, "GIF8")) {
+                return new PageInfo(name, readShortLE(header, 6), readShortLE(header, 8));
+            }
+
+            // BMP: BITMAPINFOHEADER. Height is negative for top-down bitmaps
+            if (header.length >= 26 && startsWith(header, 0, "BM")) {
+                return new PageInfo(name, readIntLE(header, 18), Math.abs(readIntLE(header, 22)));
+            }
+
+            // WebP: RIFF container with VP8, VP8L or VP8X chunk
+            if (header.length >= HEADER_SIZE && startsWith(header, 0, "RIFF") && startsWith(header, 8, "WEBP")) {
+                return readWebP(name, header);
+            }
+        } catch (IOException e) {
+            if (App.IS_DEBUG) {
+                e.printStackTrace();
+            }
+        }
+        return new PageInfo(name, 0, 0);
+    }
+
+    /**
+     * Find JPEG SOF marker and read dimensions from it. All other segments are skipped without reading
+     *
+     * @param name   image file name
+     * @param stream {@link DataInputStream} positioned right after SOI marker
+     * @return {@link PageInfo}
+     * @throws IOException if an I/O error has occurred or stream ended before SOF marker
+     */
+    private static PageInfo readJPEG(String name, DataInputStream stream) throws IOException {
+        while (true) {
+            // Find marker, skipping fill bytes
+            if (stream.readUnsignedByte() != 0xFF) {
+                continue;
+            }
+
+            int marker = stream.readUnsignedByte();
+            while (marker == 0xFF) {
+                marker = stream.readUnsignedByte();
+            }
+
+            // Standalone markers without length
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                throw new EOFException("JPEG SOF marker not found");
+            }
+
+            int length = stream.readUnsignedShort();
+
+            // SOF0-SOF15 except DHT, JPG and DAC
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                stream.skipNBytes(1);
+                int height = stream.readUnsignedShort();
+                int width = stream.readUnsignedShort();
+                return new PageInfo(name, width, height);
+            }
+
+            stream.skipNBytes(length - 2);
+        }
+    }
+
+    /**
+     * Read WebP dimensions from first chunk header
+     *
+     * @param name   image file name
+     * @param header first {@link #HEADER_SIZE} bytes of image
+     * @return {@link PageInfo}
+     */
+    private static PageInfo readWebP(String name, byte[] header) {
+        // Lossy: frame tag, start code and 14 bit dimensions
+        if (startsWith(header, 12, "VP8 ")) {
+            return new PageInfo(name, readShortLE(header, 26) & 0x3FFF, readShortLE(header, 28) & 0x3FFF);
+        }
+
+        // Lossless: signature and 14 bit dimensions minus one packed into 28 bits
+        if (startsWith(header, 12, "VP8L")) {
+            int bits = readIntLE(header, 21);
+            return new PageInfo(name, (bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+        }
+
+        // Extended: 24 bit canvas dimensions minus one
+        if (startsWith(header, 12, "VP8X")) {
+            return new PageInfo(name, readInt24LE(header, 24) + 1, readInt24LE(header, 27) + 1);
+        }
+        return new PageInfo(name, 0, 0);
+    }
+
+    /**
+     * Check if bytes at given offset are equal to ASCII {@link String}
+     *
+     * @param bytes  input bytes
+     * @param offset offset in bytes
+     * @param value  expected ASCII {@link String}
+     * @return true if bytes match
+     */
+    private static boolean startsWith(byte[] bytes, int offset, String value) {
+        byte[] expected = value.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length < offset + expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read big-endian 32 bit integer
+     *
+     * @param bytes  input bytes
+     * @param offset offset in bytes
+     * @return integer value
+     */
+    private static int readIntBE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Read little-endian 32 bit integer
+     *
+     * @param bytes  input bytes
+     * @param offset offset in bytes
+     * @return integer value
+     */
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset + 3] & 0xFF) << 24 | readInt24LE(bytes, offset);
+    }
+
+    /**
+     * Read little-endian unsigned 24 bit integer
+     *
+     * @param bytes  input bytes
+     * @param offset offset in bytes
+     * @return integer value
+     */
+    private static int readInt24LE(byte[] bytes, int offset) {
+        return (bytes[offset + 2] & 0xFF) << 16 | readShortLE(bytes, offset);
+    }
+
+    /**
+     * Read little-endian unsigned 16 bit integer
+     *
+     * @param bytes  input bytes
+     * @param offset offset in bytes
+     * @return integer value
+     */
+    private static int readShortLE(byte[] bytes, int offset) {
+        return (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset] & 0xFF);
+    }
+}
@@ -0,0 +1,220 @@
+package xyz.atsumeru.ksk2atsu.metadata;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.yaml.snakeyaml.events.*;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streaming reader of {@link BookInfo} and {@link YAMLContent} metadata. Only fields that are used for sorting and
+ * renaming are extracted, everything else is skipped without building document tree, and reading stops as soon as
+ * all needed fields are found
+ */
+public class MetadataReader {
+    private static final Set<String> BOOK_INFO_KEYS = Set.of("atsumeru", "link", "title", "authors", "parodies", "magazines", "publisher", "event");
+    private static final Set<String> YAML_KEYS = Set.of("URL", "Title", "Artist", "Parody", "Publisher", "Event", "Magazine");
+    private static final Set<String> YAML_NULLS = Set.of("", "~", "null", "Null", "NULL");
+
+    /**
+     * Read {@link BookInfo} from book_info.json {@link InputStream} with {@link JsonReader}
+     *
+     * @param inputStream book_info.json {@link InputStream}. Is not closed
+     * @return {@link BookInfo} with extracted fields
+     * @throws IOException if an I/O error has occurred or json is malformed
+     */
+    public static BookInfo readBookInfo(InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+        reader.setLenient(true);
+
+        BookInfo bookInfo = new BookInfo();
+        Set<String> foundKeys = new HashSet<>();
+        reader.beginObject();
+        while (reader.hasNext() && foundKeys.size() < BOOK_INFO_KEYS.size()) {
+            String name = reader.nextName();
+            if (!BOOK_INFO_KEYS.contains(name)) {
+                reader.skipValue();
+                continue;
+            }
+
+            foundKeys.add(name);
+            switch (name) {
+                case "atsumeru" -> readHashes(reader, bookInfo);
+                case "link" -> bookInfo.setLink(nextString(reader));
+                case "title" -> bookInfo.setTitle(nextString(reader));
+                case "authors" -> bookInfo.setAuthors(nextStringList(reader));
+                case "parodies" -> bookInfo.setParodies(nextStringList(reader));
+                case "magazines" -> bookInfo.setMagazines(nextStringList(reader));
+                case "publisher" -> bookInfo.setPublisher(nextString(reader));
+                case "event" -> bookInfo.setEvent(nextString(reader));
+            }
+        }
+        return bookInfo;
+    }
+
+    /**
+     * Read {@link YAMLContent} from info.yaml {@link InputStream} with event-based YAML {@link Parser}. Values of nested
+     * sequences, like <b>- - Comic Name</b> in some KSK metadata, are flattened into single {@link List}
+     *
+     * @param inputStream info.yaml {@link InputStream}. Is not closed
+     * @return {@link YAMLContent} with extracted fields or null if document is empty
+     */
+    public static YAMLContent readYAMLContent(InputStream inputStream) {
+        Parser parser = new ParserImpl(new StreamReader(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))));
+
+        YAMLContent yamlContent = new YAMLContent();
+        Set<String> foundKeys = new HashSet<>();
+
+        // Skip stream and document start events until root mapping
+        while (!parser.checkEvent(Event.ID.MappingStart)) {
+            if (parser.checkEvent(Event.ID.StreamEnd)) {
+                return null;
+            }
+            parser.getEvent();
+        }
+        parser.getEvent();
+
+        while (!parser.checkEvent(Event.ID.MappingEnd) && foundKeys.size() < YAML_KEYS.size()) {
+            Event keyEvent = parser.getEvent();
+            String key = keyEvent instanceof ScalarEvent scalarEvent ? scalarEvent.getValue() : null;
+            if (key == null || !YAML_KEYS.contains(key)) {
+                skipNode(parser, keyEvent);
+                skipNode(parser, parser.getEvent());
+                continue;
+            }
+
+            foundKeys.add(key);
+            List<String> values = readValues(parser, parser.getEvent());
+            String value = values.isEmpty() ? null : values.get(0);
+            switch (key) {
+                case "URL" -> yamlContent.setURL(value);
+                case "Title" -> yamlContent.setTitle(value);
+                case "Artist" -> yamlContent.setArtist(values);
+                case "Parody" -> yamlContent.setParody(values);
+                case "Publisher" -> yamlContent.setPublisher(values);
+                case "Event" -> yamlContent.setEvent(value);
+                case "Magazine" -> yamlContent.setMagazine(values);
+            }
+        }
+        return yamlContent;
+    }
+
+    /**
+     * Read object with special Atsumeru Serie/Archive hashes into {@link BookInfo}
+     *
+     * @param reader   {@link JsonReader}
+     * @param bookInfo {@link BookInfo} into which hashes will be set
+     * @throws IOException if json is malformed
+     */
+    private static void readHashes(JsonReader reader, BookInfo bookInfo) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "serie_hash" -> bookInfo.setSerieHash(nextString(reader));
+                case "hash" -> bookInfo.setHash(nextString(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read json string value. Numbers are returned as {@link String}
+     *
+     * @param reader {@link JsonReader}
+     * @return {@link String} value or null
+     * @throws IOException if json is malformed
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Read json array of strings or single string as {@link List}
+     *
+     * @param reader {@link JsonReader}
+     * @return {@link List} of {@link String} values or null
+     * @throws IOException if json is malformed
+     */
+    private static List<String> nextStringList(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        List<String> list = new ArrayList<>();
+        if (token != JsonToken.BEGIN_ARRAY) {
+            list.add(reader.nextString());
+            return list;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(reader.nextString());
+        }
+        reader.endArray();
+        return list;
+    }
+
+    /**
+     * Collect all scalar values of YAML node which first {@link Event} is already consumed. Null scalars are skipped
+     *
+     * @param parser     YAML {@link Parser}
+     * @param firstEvent first {@link Event} of node
+     * @return {@link List} of {@link String} values
+     */
+    private static List<String> readValues(Parser parser, Event firstEvent) {
+        List<String> values = new ArrayList<>();
+        Event event = firstEvent;
+        int depth = 0;
+        do {
+            if (event instanceof ScalarEvent scalarEvent) {
+                String value = scalarEvent.getValue();
+                if (!scalarEvent.getImplicit().canOmitTagInPlainScalar() || !YAML_NULLS.contains(value)) {
+                    values.add(value);
+                }
+            } else if (event instanceof CollectionStartEvent) {
+                depth++;
+            } else if (event instanceof CollectionEndEvent) {
+                depth--;
+            }
+        } while (depth > 0 && (event = parser.getEvent()) != null);
+        return values;
+    }
+
+    /**
+     * Skip YAML node which first {@link Event} is already consumed
+     *
+     * @param parser     YAML {@link Parser}
+     * @param firstEvent first {@link Event} of node
+     */
+    private static void skipNode(Parser parser, Event firstEvent) {
+        int depth = firstEvent instanceof CollectionStartEvent ? 1 : 0;
+        while (depth > 0) {
+            Event event = parser.getEvent();
+            if (event instanceof CollectionStartEvent) {
+                depth++;
+            } else if (event instanceof CollectionEndEvent) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package xyz.atsumeru.ksk2atsu.metadata;
+
+/**
+ * Single page of archive with image dimensions read from image header
+ *
+ * @param name   image file name in archive
+ * @param width  image width in pixels or 0 if unknown
+ * @param height image height in pixels or 0 if unknown
+ */
+public record PageInfo(String name, int width, int height) {
+}
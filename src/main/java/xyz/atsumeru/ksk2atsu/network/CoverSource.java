@@ -0,0 +1,30 @@
+package xyz.atsumeru.ksk2atsu.network;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Source of Comic Magazine pages and cover images used for downloading covers
+ */
+public interface CoverSource {
+
+    /**
+     * Fetch page by given url
+     *
+     * @param url page {@link String} url
+     * @return page {@link String} content or null if page is not found
+     * @throws IOException if an I/O error has occurred
+     */
+    String fetchPage(String url) throws IOException;
+
+    /**
+     * Fetch image by given url and save it into given {@link File}. Implementations must never leave partially written
+     * {@link File} behind
+     *
+     * @param url        image {@link String} url
+     * @param outputFile {@link File} in which image will be saved
+     * @return true if image was found and saved
+     * @throws IOException if an I/O error has occurred
+     */
+    boolean fetchImage(String url, File outputFile) throws IOException;
+}
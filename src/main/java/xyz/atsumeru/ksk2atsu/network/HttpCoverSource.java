@@ -0,0 +1,129 @@
+package xyz.atsumeru.ksk2atsu.network;
+
+import okhttp3.*;
+import okio.BufferedSink;
+import okio.Okio;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.utils.StringUtils;
+import xyz.atsumeru.ksk2atsu.utils.TokenBucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+
+/**
+ * {@link CoverSource} that requests pages and images over HTTP with rate limiting and retries. Optionally all requests
+ * may be redirected into another server by base url override: <b>https://host/path</b> is requested as <b>{base url}/host/path</b>,
+ * so any static HTTP server over {@link MirrorCoverSource} directory layout may replace live sites
+ */
+public class HttpCoverSource implements CoverSource {
+    private final OkHttpClient httpClient;
+    private final RetryPolicy retryPolicy;
+    private final TokenBucket rateLimiter;
+    private final HttpUrl baseUrl;
+
+    /**
+     * Create {@link HttpCoverSource}
+     *
+     * @param retryPolicy {@link RetryPolicy} for transient network and server errors
+     * @param rateLimiter {@link TokenBucket} that limits rate of all requests, including retries
+     * @param baseUrl     optional base {@link String} url override. May be null
+     */
+    public HttpCoverSource(RetryPolicy retryPolicy, TokenBucket rateLimiter, String baseUrl) {
+        this.httpClient = new OkHttpClient();
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+        this.baseUrl = StringUtils.isNotEmpty(baseUrl) ? HttpUrl.get(baseUrl) : null;
+    }
+
+    @Override
+    public String fetchPage(String url) throws IOException {
+        try (Response response = execute(createRequest(url))) {
+            return response.isSuccessful() ? response.body().string() : null;
+        }
+    }
+
+    /**
+     * Stream response body into temporary file in the same directory, verify it against Content-Length and atomically
+     * rename into place, so heap usage doesn't depend on image size
+     */
+    @Override
+    public boolean fetchImage(String url, File outputFile) throws IOException {
+        Path tempFile = null;
+        try (Response response = execute(createRequest(url))) {
+            // Download image only if response code is HTTP OK
+            if (response.code() != HttpURLConnection.HTTP_OK) {
+                return false;
+            }
+
+            // Stream body into temporary file without buffering it in memory
+            ResponseBody body = response.body();
+            tempFile = FileUtils.createTempFile(outputFile.toPath());
+            long written;
+            try (BufferedSink sink = Okio.buffer(Okio.sink(tempFile))) {
+                written = sink.writeAll(body.source());
+            }
+
+            // Verify that whole body was received
+            long expected = body.contentLength();
+            if (expected >= 0 && written != expected) {
+                throw new IOException("Incomplete download of [" + url + "]: expected " + expected + " bytes, received " + written);
+            }
+
+            // Publish downloaded file
+            FileUtils.moveAtomically(tempFile, outputFile.toPath());
+            return true;
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * Create {@link Request} for given url applying base url override
+     *
+     * @param url {@link String} url
+     * @return {@link Request}
+     */
+    private Request createRequest(String url) {
+        HttpUrl httpUrl = HttpUrl.get(url);
+        if (baseUrl != null) {
+            HttpUrl.Builder builder = baseUrl.newBuilder().addPathSegment(httpUrl.host());
+            httpUrl.pathSegments().forEach(builder::addPathSegment);
+            httpUrl = builder.encodedQuery(httpUrl.encodedQuery()).build();
+        }
+
+        return new Request.Builder()
+                .url(httpUrl)
+                .build();
+    }
+
+    /**
+     * Execute {@link Request} respecting {@link #rateLimiter} and retrying transient failures using {@link #retryPolicy}
+     *
+     * @param request {@link Request} to execute
+     * @return last received {@link Response}. Must be closed by caller
+     * @throws IOException if request failed on all attempts
+     */
+    private Response execute(Request request) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            rateLimiter.acquire();
+            try {
+                Response response = httpClient.newCall(request).execute();
+                if (!retryPolicy.isRetryable(response.code()) || attempt >= retryPolicy.getMaxRetries()) {
+                    return response;
+                }
+
+                // Transient server error. Wait and try again
+                String retryAfter = response.header("Retry-After");
+                response.close();
+                retryPolicy.await(attempt, retryAfter);
+            } catch (IOException e) {
+                if (attempt >= retryPolicy.getMaxRetries()) {
+                    throw e;
+                }
+                retryPolicy.await(attempt, null);
+            }
+        }
+    }
+}
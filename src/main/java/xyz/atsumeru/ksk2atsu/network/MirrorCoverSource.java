@@ -0,0 +1,75 @@
+package xyz.atsumeru.ksk2atsu.network;
+
+import okhttp3.HttpUrl;
+import org.apache.commons.io.IOUtils;
+import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link CoverSource} backed by local directory mirror. Url <b>https://host/path/to/page</b> is resolved into
+ * <b>{mirror dir}/host/path/to/page</b> file. Pages may also be saved with <b>.html</b> extension
+ */
+public class MirrorCoverSource implements CoverSource {
+    private static final String HTML_EXTENSION = ".html";
+
+    private final Path mirrorDir;
+
+    /**
+     * Create {@link MirrorCoverSource}
+     *
+     * @param mirrorDir mirror root {@link File} directory
+     */
+    public MirrorCoverSource(File mirrorDir) {
+        this.mirrorDir = mirrorDir.toPath();
+    }
+
+    @Override
+    public String fetchPage(String url) throws IOException {
+        Path page = resolve(url);
+        if (!Files.isRegularFile(page)) {
+            page = page.resolveSibling(page.getFileName() + HTML_EXTENSION);
+        }
+
+        if (!Files.isRegularFile(page)) {
+            return null;
+        }
+
+        try (InputStream inputStream = Files.newInputStream(page)) {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public boolean fetchImage(String url, File outputFile) throws IOException {
+        Path image = resolve(url);
+        if (!Files.isRegularFile(image)) {
+            return false;
+        }
+
+        FileUtils.copyAtomically(image, outputFile.toPath());
+        return true;
+    }
+
+    /**
+     * Resolve url into {@link Path} in mirror directory
+     *
+     * @param url {@link String} url
+     * @return {@link Path} in mirror directory
+     */
+    private Path resolve(String url) {
+        HttpUrl httpUrl = HttpUrl.get(url);
+        Path path = mirrorDir.resolve(httpUrl.host());
+        for (String segment : httpUrl.pathSegments()) {
+            if (!segment.isEmpty()) {
+                path = path.resolve(segment);
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,93 @@
+package xyz.atsumeru.ksk2atsu.network;
+
+import lombok.Getter;
+import xyz.atsumeru.ksk2atsu.utils.StringUtils;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retry policy for HTTP requests with exponential backoff and jitter
+ */
+public class RetryPolicy {
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    @Getter
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Create {@link RetryPolicy}
+     *
+     * @param maxRetries      maximum amount of retries after first failed attempt
+     * @param baseDelayMillis delay before first retry in milliseconds. Doubles with each next retry
+     * @param maxDelayMillis  upper bound for delay between retries in milliseconds
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Check if request that finished with given HTTP code should be retried. Only rate limiting and server side
+     * errors are considered transient
+     *
+     * @param code HTTP response code
+     * @return true if request should be retried
+     */
+    public boolean isRetryable(int code) {
+        return code == HTTP_TOO_MANY_REQUESTS
+                || code == HttpURLConnection.HTTP_INTERNAL_ERROR
+                || code == HttpURLConnection.HTTP_BAD_GATEWAY
+                || code == HttpURLConnection.HTTP_UNAVAILABLE
+                || code == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Compute delay before retry. Delay grows exponentially with attempt number and is randomized within upper
+     * half of its range, so parallel workers don't retry in lockstep. Server provided Retry-After value is respected
+     *
+     * @param attempt    zero-based number of failed attempt
+     * @param retryAfter optional Retry-After {@link String} header value in seconds. May be null
+     * @return delay in milliseconds
+     */
+    public long getDelayMillis(int attempt, String retryAfter) {
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20));
+        long jittered = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+        return Math.max(jittered, parseRetryAfterMillis(retryAfter));
+    }
+
+    /**
+     * Block current thread for delay computed by {@link #getDelayMillis(int, String)}
+     *
+     * @param attempt    zero-based number of failed attempt
+     * @param retryAfter optional Retry-After {@link String} header value in seconds. May be null
+     */
+    public void await(int attempt, String retryAfter) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(getDelayMillis(attempt, retryAfter));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Parse Retry-After header value in seconds. HTTP-date values are ignored
+     *
+     * @param retryAfter Retry-After {@link String} header value
+     * @return delay in milliseconds or 0 if value is absent or can't be parsed
+     */
+    private long parseRetryAfterMillis(String retryAfter) {
+        if (StringUtils.isNotEmpty(retryAfter)) {
+            try {
+                return Math.min(maxDelayMillis, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException ignored) {
+                // ignore
+            }
+        }
+        return 0;
+    }
+}
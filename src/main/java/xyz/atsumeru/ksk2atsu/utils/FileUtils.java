@@ -1,19 +1,25 @@
 package xyz.atsumeru.ksk2atsu.utils;
 
 import xyz.atsumeru.ksk2atsu.App;
+import xyz.atsumeru.ksk2atsu.io.DirectoryWalker;
+import xyz.atsumeru.ksk2atsu.io.FileRecord;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Small collection of {@link File} utils
  */
 public class FileUtils {
+    private static final List<String> IMAGE_EXTENSIONS = List.of("jpg", "jpeg", "png", "gif", "bmp", "webp");
 
     /**
      * Non-recursive list {@link File} dirs in given {@link File} dir
@@ -22,9 +28,8 @@ public class FileUtils {
      * @return {@link List} of {@link File} dirs
      */
     public static List<Path> listDirs(File dir) {
-        try (Stream<Path> stream = Files.list(dir.toPath())) {
-            return stream.filter(path -> path.toFile().isDirectory())
-                    .collect(Collectors.toList());
+        try {
+            return DirectoryWalker.listDirs(dir.toPath());
         } catch (IOException ex) {
             ex.printStackTrace();
             return new ArrayList<>();
@@ -38,19 +43,24 @@ public class FileUtils {
      * @return {@link List} of {@link File} Comic files
      */
     public static List<File> listComicArchiveFiles(File dir) {
-        try (Stream<Path> stream = Files.walk(dir.toPath(), Integer.MAX_VALUE)) {
-            return stream
-                    .filter(path -> !Files.isDirectory(path))
-                    .map(Path::toFile)
-                    .filter(file -> {
-                        String extension = FileUtils.getFileExtension(file).toLowerCase();
-                        return extension.equalsIgnoreCase(App.ZIP_EXTENSION) || extension.equalsIgnoreCase(App.CBZ_EXTENSION);
-                    })
-                    .collect(Collectors.toList());
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            return new ArrayList<>();
-        }
+        return walkComicArchiveFiles(dir)
+                .stream()
+                .map(FileRecord::toFile)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Recursively walk given {@link File} dir in parallel and collect {@link FileRecord} for all Comic files with
+     * {@link App#ZIP_EXTENSION} or {@link App#CBZ_EXTENSION} extensions
+     *
+     * @param dir input {@link File} dir
+     * @return {@link List} of {@link FileRecord} for Comic files
+     */
+    public static List<FileRecord> walkComicArchiveFiles(File dir) {
+        return DirectoryWalker.walk(
+                dir.toPath(),
+                record -> record.extension().equals(App.ZIP_EXTENSION) || record.extension().equals(App.CBZ_EXTENSION)
+        );
     }
 
     /**
@@ -64,6 +74,19 @@ public class FileUtils {
         return fileName.substring(0, fileName.lastIndexOf(".")).trim();
     }
 
+    /**
+     * Get {@link File#getName()} with {@link App#ZIP_EXTENSION} extension replaced by {@link App#CBZ_EXTENSION}, so
+     * Comic file can be placed under normalized name without renaming original file
+     *
+     * @param file input Comic {@link File}
+     * @return {@link String} file name with normalized extension
+     */
+    public static String getNormalizedComicFileName(File file) {
+        return getFileExtension(file).equalsIgnoreCase(App.ZIP_EXTENSION)
+                ? getFileNameWithoutExtension(file) + "." + App.CBZ_EXTENSION
+                : file.getName();
+    }
+
     /**
      * Get {@link File} extension from {@link File#getName()}
      *
@@ -75,6 +98,17 @@ public class FileUtils {
         return fileName.substring(fileName.lastIndexOf(".") + 1);
     }
 
+    /**
+     * Check if given file name has one of known image extensions
+     *
+     * @param fileName {@link String} file name or path
+     * @return true if file name looks like image
+     */
+    public static boolean isImageFile(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+        return IMAGE_EXTENSIONS.contains(extension);
+    }
+
     /**
      * Write given {@link String} content into {@link File}
      *
@@ -111,16 +145,116 @@ public class FileUtils {
     }
 
     /**
-     * Checks if given {@link File} directory is empty
+     * Move {@link Path} into target {@link Path} replacing it atomically. Falls back into non-atomic replacing if
+     * filesystem doesn't support atomic moves
      *
-     * @param dir input {@link File} directory
-     * @return true if empty
+     * @param source source {@link Path}
+     * @param target target {@link Path}
+     * @throws IOException if an I/O error has occurred
      */
-    public static boolean isDirectoryEmpty(File dir) {
-        try (Stream<Path> entries = Files.list(dir.toPath())) {
-            return entries.findFirst().isEmpty();
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Create empty temporary file next to target {@link Path} with unique name. Unlike {@link Files#createTempFile(Path, String, String, java.nio.file.attribute.FileAttribute[])},
+     * file gets default permissions from umask instead of owner-only ones, so file published by moving it into target
+     * stays readable for other users, e.g. Atsumeru server
+     *
+     * @param target target {@link Path} for which temporary file is created
+     * @return {@link Path} of created temporary file
+     * @throws IOException if an I/O error has occurred
+     */
+    public static Path createTempFile(Path target) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        while (true) {
+            Path tempFile = dir.resolve(target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+            try {
+                return Files.createFile(tempFile);
+            } catch (FileAlreadyExistsException e) {
+                // Name is taken, try another one
+            }
+        }
+    }
+
+    /**
+     * Copy {@link Path} into target {@link Path} through temporary file in target directory, so target is either
+     * absent or complete
+     *
+     * @param source source {@link Path}
+     * @param target target {@link Path}
+     * @throws IOException if an I/O error has occurred
+     */
+    public static void copyAtomically(Path source, Path target) throws IOException {
+        Path tempFile = createTempFile(target);
+        try {
+            Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            moveAtomically(tempFile, target);
+        } finally {
+            deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * Get identifier of storage device on which given {@link Path} is located. Uses device number from file attributes
+     * where supported, which is much cheaper than {@link Files#getFileStore(Path)} lookup
+     *
+     * @param path existing {@link Path}
+     * @return {@link String} device identifier
+     */
+    public static String getDeviceId(Path path) {
+        try {
+            return String.valueOf(Files.getAttribute(path, "unix:dev"));
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            try {
+                return Files.getFileStore(path).name();
+            } catch (IOException ex) {
+                return String.valueOf(path.toAbsolutePath().getRoot());
+            }
+        }
+    }
+
+    /**
+     * Check if two existing {@link Path} are located on the same storage device
+     *
+     * @param first  first {@link Path}
+     * @param second second {@link Path}
+     * @return true if both {@link Path} are on the same device
+     */
+    public static boolean isSameDevice(Path first, Path second) {
+        return getDeviceId(first).equals(getDeviceId(second));
+    }
+
+    /**
+     * Get size of {@link Path} ignoring errors
+     *
+     * @param path input {@link Path}
+     * @return size in bytes or 0 if size can't be read
+     */
+    public static long sizeQuietly(Path path) {
+        try {
+            return Files.size(path);
         } catch (IOException e) {
-            return false;
+            return 0;
+        }
+    }
+
+    /**
+     * Quietly delete {@link Path} if it exists
+     *
+     * @param path {@link Path} that will be deleted quietly. May be null
+     */
+    public static void deleteQuietly(Path path) {
+        if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // ignore
+            }
         }
     }
 }
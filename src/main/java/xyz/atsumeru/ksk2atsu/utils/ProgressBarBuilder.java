@@ -19,4 +19,22 @@ public class ProgressBarBuilder {
                 .setStyle(ProgressBarStyle.ASCII)
                 .build();
     }
+
+    /**
+     * Helper method for creating and configuring {@link ProgressBar} that indicates progress in bytes with
+     * transfer speed and ETA
+     *
+     * @param message    message for progress indicating
+     * @param totalBytes total amount of bytes
+     * @return configured {@link ProgressBar} instance
+     */
+    public static ProgressBar createForBytes(String message, long totalBytes) {
+        return new me.tongfei.progressbar.ProgressBarBuilder()
+                .setTaskName(message)
+                .setInitialMax(totalBytes)
+                .setStyle(ProgressBarStyle.ASCII)
+                .setUnit("MB", 1024 * 1024)
+                .showSpeed()
+                .build();
+    }
 }
@@ -0,0 +1,55 @@
+package xyz.atsumeru.ksk2atsu.utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces calls with equal keys into single execution. First caller computes value, all other callers with the same
+ * key wait for it and receive the same result. Successful non-null results are kept until {@link #clear()} is called,
+ * so later callers are served without new execution. Null results and failures are forgotten as soon as call
+ * completes, so only callers waiting at that moment share them and later callers execute again
+ *
+ * @param <K> key type
+ * @param <V> value type. Null value means failure
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Get value for given key, executing {@link Supplier} only if no other call for that key is in flight or succeeded
+     *
+     * @param key      call key
+     * @param supplier {@link Supplier} that computes value. Executed in caller thread
+     * @return computed value
+     */
+    public V execute(K key, Supplier<V> supplier) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> existingCall = calls.putIfAbsent(key, call);
+        if (existingCall != null) {
+            return existingCall.join();
+        }
+
+        try {
+            V value = supplier.get();
+            if (value == null) {
+                // Waiters already hold the future, so removing it affects only callers that arrive later
+                calls.remove(key, call);
+            }
+            call.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            calls.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Forget all kept results
+     */
+    public void clear() {
+        calls.clear();
+    }
+}
@@ -42,19 +42,28 @@ public class StringUtils {
     public static String md5Hex(String str) {
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] hash = md.digest(str.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                final String hex = Integer.toHexString(0xFF & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
+            return toHex(md.digest(str.getBytes(StandardCharsets.UTF_8)));
         } catch (NullPointerException | NoSuchAlgorithmException ex) {
             ex.printStackTrace();
         }
         return "";
     }
+
+    /**
+     * Convert given bytes into lowercase hex {@link String}
+     *
+     * @param bytes input bytes, e.g. hash
+     * @return hex {@link String}
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : bytes) {
+            final String hex = Integer.toHexString(0xFF & b);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
 }
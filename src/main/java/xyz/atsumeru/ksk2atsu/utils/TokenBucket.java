@@ -0,0 +1,89 @@
+package xyz.atsumeru.ksk2atsu.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe token bucket rate limiter. Bucket is refilled with constant rate up to its capacity and each
+ * {@link #acquire(long)} call takes given amount of permits, blocking caller while bucket is in debt
+ */
+public class TokenBucket {
+    private final double permitsPerSecond;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Create {@link TokenBucket} with given refill rate and capacity. Bucket starts full
+     *
+     * @param permitsPerSecond refill rate. Zero or negative value disables limiting
+     * @param capacity         maximum amount of permits that may be accumulated, e.g. allowed burst size
+     */
+    public TokenBucket(double permitsPerSecond, double capacity) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Create {@link TokenBucket} that never blocks
+     *
+     * @return unlimited {@link TokenBucket}
+     */
+    public static TokenBucket unlimited() {
+        return new TokenBucket(0, 1);
+    }
+
+    /**
+     * Check if this {@link TokenBucket} actually limits anything
+     *
+     * @return true if rate is not limited
+     */
+    public boolean isUnlimited() {
+        return permitsPerSecond <= 0;
+    }
+
+    /**
+     * Take single permit from bucket, blocking while it is not available
+     */
+    public void acquire() {
+        acquire(1);
+    }
+
+    /**
+     * Take given amount of permits from bucket, blocking while they are not available. Permits are reserved
+     * immediately, so concurrent callers are served in order of arrival and requests larger than capacity are allowed
+     *
+     * @param permits amount of permits to take
+     */
+    public void acquire(long permits) {
+        if (isUnlimited() || permits <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+            waitNanos = tokens < 0 ? (long) (-tokens / permitsPerSecond * TimeUnit.SECONDS.toNanos(1)) : 0;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Add permits accumulated since last refill
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
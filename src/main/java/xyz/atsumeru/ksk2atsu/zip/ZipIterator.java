@@ -1,7 +1,9 @@
 package xyz.atsumeru.ksk2atsu.zip;
 
 import net.greypanther.natsort.CaseInsensitiveSimpleNaturalComparator;
+import xyz.atsumeru.ksk2atsu.io.IoThrottle;
 import xyz.atsumeru.ksk2atsu.utils.FileUtils;
+import xyz.atsumeru.ksk2atsu.utils.StringUtils;
 
 import java.io.*;
 import java.net.URI;
@@ -9,7 +11,10 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -31,6 +36,7 @@ public class ZipIterator implements Closeable {
      * @throws IOException if an I/O error has occurred
      */
     private ZipIterator(File archive) throws IOException {
+        IoThrottle.acquireOperation();
         zipFile = new ZipFile(archive, Charset.forName("CP866"));
         reset();
     }
@@ -82,33 +88,182 @@ public class ZipIterator implements Closeable {
     }
 
     /**
-     * Get {@link InputStream} from current {@link ZipEntry}
+     * Get {@link InputStream} from current {@link ZipEntry}. Reading is throttled with {@link IoThrottle} by compressed
+     * size of read data
      *
      * @return {@link InputStream} from current {@link ZipEntry}
      * @throws IOException if an I/O error has occurred
      */
     public InputStream getEntryInputStream() throws IOException {
-        return zipFile.getInputStream(entry);
+        return getThrottledInputStream(entry);
+    }
+
+    /**
+     * Get {@link InputStream} of file with given name. Reading is throttled with {@link IoThrottle} by compressed size
+     * of read data
+     *
+     * @param fileName filename in archive
+     * @return {@link InputStream} of file or null if archive doesn't contain it
+     * @throws IOException if an I/O error has occurred
+     */
+    public InputStream getEntryInputStream(String fileName) throws IOException {
+        ZipEntry zipEntry = zipFile.getEntry(fileName);
+        return zipEntry != null ? getThrottledInputStream(zipEntry) : null;
+    }
+
+    /**
+     * Get {@link InputStream} from given {@link ZipEntry} throttled with {@link IoThrottle}. Archive is already opened,
+     * so only read data is charged, converted from uncompressed into compressed bytes that are actually read from disk
+     *
+     * @param zipEntry {@link ZipEntry} to read
+     * @return throttled {@link InputStream} from given {@link ZipEntry}
+     * @throws IOException if an I/O error has occurred
+     */
+    private InputStream getThrottledInputStream(ZipEntry zipEntry) throws IOException {
+        long size = zipEntry.getSize();
+        long compressedSize = zipEntry.getCompressedSize();
+        double compressionRatio = size > 0 && compressedSize >= 0 ? (double) compressedSize / size : 1;
+        return IoThrottle.throttle(zipFile.getInputStream(zipEntry), compressionRatio);
+    }
+
+    /**
+     * Count files in archive which names match given {@link Predicate}. Names are taken from central directory, so file
+     * content is not read
+     *
+     * @param namePredicate {@link Predicate} for file names in archive
+     * @return amount of matched files
+     */
+    public int countEntries(Predicate<String> namePredicate) {
+        return (int) zipFile.stream()
+                .filter(it -> !it.isDirectory())
+                .map(ZipEntry::getName)
+                .filter(namePredicate)
+                .count();
+    }
+
+    /**
+     * Create content fingerprint of archive: MD5 hash of sorted <b>name:size:crc32</b> lines for all files which names
+     * match given {@link Predicate}. Values are taken from central directory, so file content is not read and
+     * fingerprint doesn't depend on archive name or location
+     *
+     * @param namePredicate {@link Predicate} for file names in archive that will be included into fingerprint
+     * @return {@link String} MD5 fingerprint
+     */
+    public String getFingerprint(Predicate<String> namePredicate) {
+        return StringUtils.md5Hex(
+                zipFile.stream()
+                        .filter(it -> !it.isDirectory())
+                        .filter(it -> namePredicate.test(it.getName()))
+                        .map(it -> it.getName() + ":" + it.getSize() + ":" + it.getCrc())
+                        .sorted()
+                        .collect(Collectors.joining("\n"))
+        );
+    }
+
+    /**
+     * Create MD5 hash of actual content of all files which names match given {@link Predicate}. Unlike
+     * {@link #getFingerprint(Predicate)}, every file is fully read, so it is used only to confirm equal fingerprints
+     *
+     * @param namePredicate {@link Predicate} for file names in archive that will be included into hash
+     * @return {@link String} MD5 hash
+     * @throws IOException if an I/O error has occurred
+     */
+    public String getContentHash(Predicate<String> namePredicate) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        List<? extends ZipEntry> entries = zipFile.stream()
+                .filter(it -> !it.isDirectory())
+                .filter(it -> namePredicate.test(it.getName()))
+                .sorted(Comparator.comparing(ZipEntry::getName))
+                .toList();
+
+        byte[] buffer = new byte[8192];
+        for (ZipEntry zipEntry : entries) {
+            messageDigest.update(zipEntry.getName().getBytes(StandardCharsets.UTF_8));
+            try (InputStream inputStream = getThrottledInputStream(zipEntry)) {
+                int read;
+                while ((read = inputStream.read(buffer)) > 0) {
+                    messageDigest.update(buffer, 0, read);
+                }
+            }
+        }
+        return StringUtils.toHex(messageDigest.digest());
+    }
+
+    /**
+     * Check if archive contains file with given name, size and CRC32 checksum. Values are taken from central directory,
+     * so file content is not read
+     *
+     * @param fileName filename in archive
+     * @param size     expected uncompressed size of file
+     * @param crc32    expected CRC32 checksum of file
+     * @return true if archive contains exactly the same file
+     */
+    public boolean containsEntry(String fileName, long size, long crc32) {
+        ZipEntry zipEntry = zipFile.getEntry(fileName);
+        return zipEntry != null && zipEntry.getSize() == size && zipEntry.getCrc() == crc32;
     }
 
     /**
      * Save given {@link String} data from {@link Map} into archive
+     * <p>
+     * Archive is rewritten into temporary file that replaces original {@link Path} on success, so data of hard linked
+     * archive is never changed in place and other links keep pointing to original content. Because whole archive is
+     * rewritten, its size is taken from read and write limits of {@link IoThrottle}
      *
      * @param archivePath            archive {@link String} path in filesystem
      * @param fileNameWithContentMap {@link Map} of values where key - filename in archive and value - actual file {@link String} content
      * @return true if content was saved
      */
     public boolean saveIntoArchive(String archivePath, Map<String, String> fileNameWithContentMap) {
+        Map<String, EntryWriter> fileNameWithWriterMap = new LinkedHashMap<>();
+        fileNameWithContentMap.forEach((fileName, content) -> fileNameWithWriterMap.put(
+                fileName,
+                outputStream -> outputStream.write(content.getBytes(StandardCharsets.UTF_8))
+        ));
+        return saveEntriesIntoArchive(archivePath, fileNameWithWriterMap);
+    }
+
+    /**
+     * Same method as {@link #saveIntoArchive(String, Map)} but streams single file content straight into archive entry
+     * with given {@link EntryWriter}, so content is never held in memory as {@link String}
+     *
+     * @param archivePath archive {@link String} path in filesystem
+     * @param fileName    filename in archive
+     * @param entryWriter {@link EntryWriter} that writes file content
+     * @return true if content was saved
+     */
+    public boolean saveIntoArchive(String archivePath, String fileName, EntryWriter entryWriter) {
+        return saveEntriesIntoArchive(archivePath, Map.of(fileName, entryWriter));
+    }
+
+    /**
+     * Write content of all files from {@link Map} into archive with their {@link EntryWriter}
+     *
+     * @param archivePath           archive {@link String} path in filesystem
+     * @param fileNameWithWriterMap {@link Map} of values where key - filename in archive and value - {@link EntryWriter} of file content
+     * @return true if content was saved
+     */
+    private boolean saveEntriesIntoArchive(String archivePath, Map<String, EntryWriter> fileNameWithWriterMap) {
         close();
 
+        long archiveSize = new File(archivePath).length();
+        IoThrottle.acquireRead(archiveSize);
+        IoThrottle.acquireWrite(archiveSize);
+
         Map<String, String> env = new HashMap<>();
         env.put("create", "true");
         URI uri = URI.create("jar:" + Paths.get(archivePath).toUri());
         try (FileSystem fileSystem = FileSystems.newFileSystem(uri, env)) {
-            for (Map.Entry<String, String> entry : fileNameWithContentMap.entrySet()) {
+            for (Map.Entry<String, EntryWriter> entry : fileNameWithWriterMap.entrySet()) {
                 Path nf = fileSystem.getPath(entry.getKey());
-                try (Writer writer = Files.newBufferedWriter(nf, StandardCharsets.UTF_8, StandardOpenOption.CREATE)) {
-                    writer.write(entry.getValue());
+                try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(nf, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                    entry.getValue().write(outputStream);
                 }
             }
             return true;
@@ -127,4 +282,19 @@ public class ZipIterator implements Closeable {
         entry = null;
         FileUtils.closeQuietly(zipFile);
     }
+
+    /**
+     * Writer of single file content into archive entry
+     */
+    @FunctionalInterface
+    public interface EntryWriter {
+
+        /**
+         * Write file content into archive entry
+         *
+         * @param outputStream {@link OutputStream} of archive entry. Must not be closed by writer
+         * @throws IOException if an I/O error has occurred
+         */
+        void write(OutputStream outputStream) throws IOException;
+    }
 }
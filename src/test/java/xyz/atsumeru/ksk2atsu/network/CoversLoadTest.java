@@ -0,0 +1,211 @@
+package xyz.atsumeru.ksk2atsu.network;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.atsumeru.ksk2atsu.managers.CoversDownloader;
+import xyz.atsumeru.ksk2atsu.utils.TokenBucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test harness for covers downloading. {@link MockWebServer} replays recorded mirror of magazine pages and covers
+ * and {@link HttpCoverSource} requests it with base url override, the same way as <b>--covers-base-url</b> argument does
+ * <p>
+ * Harness is configured with system properties, e.g. <b>gradle test -Dcovers.folders=500 -Dcovers.latency=50</b>:
+ * <ul>
+ *     <li><b>covers.mirror</b> - recorded mirror dir in {@link MirrorCoverSource} layout (default: bundled test mirror)</li>
+ *     <li><b>covers.folders</b> - how many Issue folders request every recorded page (default: 1)</li>
+ *     <li><b>covers.latency</b> - server response delay in milliseconds (default: 0)</li>
+ *     <li><b>covers.rate</b> - requests per second limit, 0 for unlimited (default: 0)</li>
+ * </ul>
+ */
+class CoversLoadTest {
+    private static final String PAGES_HOST = "www.fakku.net";
+    private static final String PAGES_PATH = "magazines";
+    private static final String HTML_EXTENSION = ".html";
+
+    private MockWebServer server;
+    private Path mirrorDir;
+
+    @TempDir
+    Path inputDir;
+
+    @BeforeEach
+    void startServer() throws IOException, URISyntaxException {
+        String mirror = System.getProperty("covers.mirror");
+        mirrorDir = mirror != null
+                ? Paths.get(mirror)
+                : Paths.get(CoversLoadTest.class.getResource("/mirror").toURI());
+
+        server = new MockWebServer();
+        server.setDispatcher(new MirrorDispatcher(mirrorDir, Long.getLong("covers.latency", 0)));
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void downloadsCoversFromRecordedMirror() throws IOException {
+        List<Path> issueDirs = createIssueDirs(Integer.getInteger("covers.folders", 1));
+        assertFalse(issueDirs.isEmpty(), "Recorded mirror has no magazine pages: " + mirrorDir);
+
+        int rate = Integer.getInteger("covers.rate", 0);
+        TimingCoverSource coverSource = new TimingCoverSource(new HttpCoverSource(
+                new RetryPolicy(3, 100, 1000),
+                rate > 0 ? new TokenBucket(rate, rate) : TokenBucket.unlimited(),
+                server.url("/").toString()
+        ));
+
+        long start = System.nanoTime();
+        List<String> errors = CoversDownloader.download(inputDir.toFile(), coverSource);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(List.of(), errors);
+        for (Path issueDir : issueDirs) {
+            assertTrue(Files.isRegularFile(issueDir.resolve("cover.jpg")), "Cover is not downloaded: " + issueDir);
+        }
+
+        List<Long> latencies = coverSource.getLatencies();
+        System.out.printf("Covers: %d folders, %d requests in %d ms (%.1f folders/s), latency p50 %d ms, p95 %d ms, max %d ms%n",
+                issueDirs.size(),
+                server.getRequestCount(),
+                elapsedMillis,
+                issueDirs.size() * 1000.0 / Math.max(elapsedMillis, 1),
+                percentile(latencies, 50),
+                percentile(latencies, 95),
+                percentile(latencies, 100));
+    }
+
+    /**
+     * Create Issue folders for every recorded magazine page. Page <b>comic-name-2020-01</b> is requested by folder
+     * <b>comic-name-2020/{index} - 01</b>, so all copies of the same page resolve into the same url
+     *
+     * @param foldersPerPage how many folders request every page
+     * @return {@link List} of created Issue folders
+     * @throws IOException if an I/O error has occurred
+     */
+    private List<Path> createIssueDirs(int foldersPerPage) throws IOException {
+        List<Path> issueDirs = new ArrayList<>();
+        Path pagesDir = mirrorDir.resolve(PAGES_HOST).resolve(PAGES_PATH);
+        try (Stream<Path> pages = Files.list(pagesDir)) {
+            for (Path page : pages.sorted().toList()) {
+                String slug = page.getFileName().toString().replace(HTML_EXTENSION, "");
+                int issueIndex = slug.lastIndexOf('-');
+                Path magazineDir = inputDir.resolve(slug.substring(0, issueIndex));
+                for (int i = 0; i < foldersPerPage; i++) {
+                    issueDirs.add(Files.createDirectories(magazineDir.resolve(i + " - " + slug.substring(issueIndex + 1))));
+                }
+            }
+        }
+        return issueDirs;
+    }
+
+    private static long percentile(List<Long> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(values.size() * percentile / 100.0) - 1;
+        return values.get(Math.max(index, 0));
+    }
+
+    /**
+     * {@link Dispatcher} that serves <b>/host/path</b> requests from recorded mirror dir in {@link MirrorCoverSource}
+     * layout with optional response delay
+     */
+    private static class MirrorDispatcher extends Dispatcher {
+        private final Path mirrorDir;
+        private final long latencyMillis;
+
+        MirrorDispatcher(Path mirrorDir, long latencyMillis) {
+            this.mirrorDir = mirrorDir;
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            HttpUrl url = request.getRequestUrl();
+            Path file = mirrorDir;
+            for (String segment : url.pathSegments()) {
+                if (!segment.isEmpty()) {
+                    file = file.resolve(segment);
+                }
+            }
+            if (!Files.isRegularFile(file)) {
+                file = file.resolveSibling(file.getFileName() + HTML_EXTENSION);
+            }
+
+            try {
+                MockResponse response = Files.isRegularFile(file)
+                        ? new MockResponse().setBody(new Buffer().write(Files.readAllBytes(file)))
+                        : new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+                return response.setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                return new MockResponse().setResponseCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
+            }
+        }
+    }
+
+    /**
+     * {@link CoverSource} that records latency of every fetch of delegate {@link CoverSource}
+     */
+    private static class TimingCoverSource implements CoverSource {
+        private final CoverSource delegate;
+        private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+        TimingCoverSource(CoverSource delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String fetchPage(String url) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return delegate.fetchPage(url);
+            } finally {
+                latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+
+        @Override
+        public boolean fetchImage(String url, File outputFile) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return delegate.fetchImage(url, outputFile);
+            } finally {
+                latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+
+        List<Long> getLatencies() {
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+}